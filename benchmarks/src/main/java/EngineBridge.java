@@ -0,0 +1,92 @@
+import benchmarks.EngineAccess;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Calls the search engine for the benchmarks. JMH does not accept benchmarks in the
+ * default package, and classes of a named package cannot refer to the engine's default
+ * package classes, so the benchmarks reach the engine through this class. It is compiled
+ * together with the engine, which checks every call at build time.
+ */
+public class EngineBridge implements EngineAccess {
+    @Override
+    public boolean createIndex(String analyzer, String similarity, String ftLocation, String fr94Location,
+                               String fbisLocation, String latimesLocation, String indexLocation) throws Exception {
+        return new Parser(analyzer, similarity).createIndex(ftLocation, fr94Location, fbisLocation, latimesLocation,
+                indexLocation);
+    }
+
+    @Override
+    public void parseWithJsoup(File file, Consumer<Document> consumer) throws Exception {
+        Parser.parseFileWithJsoup(file, consumer::accept);
+    }
+
+    @Override
+    public void parseWithMmap(File file, Consumer<Document> consumer) throws Exception {
+        TrecDocumentReader.read(file, consumer::accept);
+    }
+
+    @Override
+    public Map<?, ?> formatDocument(String docRaw) {
+        return Parser.formatDocument(docRaw);
+    }
+
+    @Override
+    public Analyzer createAnalyzer(String analyzerType, String stage, CharArraySet highFreqStopSet) {
+        return AnalyzerSimilarityFactory.createAnalyzer(analyzerType, stage, highFreqStopSet);
+    }
+
+    @Override
+    public Object newQueryIndex(String analyzer, String similarity) {
+        return new QueryIndex(analyzer, similarity);
+    }
+
+    @Override
+    public List<String> tokenizeString(Object queryIndex, String string) {
+        return ((QueryIndex) queryIndex).tokenizeString(string);
+    }
+
+    @Override
+    public Object expandQuery(Object queryIndex, Query query, IndexSearcher indexSearcher) throws Exception {
+        return ((QueryIndex) queryIndex).expandQuery(query, indexSearcher);
+    }
+
+    @Override
+    public ExecutorService createSearchExecutor(Object queryIndex) {
+        return ((QueryIndex) queryIndex).createSearchExecutor();
+    }
+
+    @Override
+    public IndexSearcher createSearcher(Object queryIndex, IndexReader indexReader, ExecutorService searchExecutor) {
+        return ((QueryIndex) queryIndex).createSearcher(indexReader, searchExecutor);
+    }
+
+    @Override
+    public ScoreDoc[] searchTopic(Object queryIndex, String[] topic, IndexSearcher indexSearcher, int maxResults)
+            throws Exception {
+        return ((QueryIndex) queryIndex).searchTopic(topic, indexSearcher, maxResults);
+    }
+
+    @Override
+    public void searchTopics(Object queryIndex, Map<Integer, String[]> topics, IndexSearcher indexSearcher,
+                             PrintWriter writer) throws Exception {
+        ((QueryIndex) queryIndex).searchTopics(topics, indexSearcher, writer);
+    }
+
+    @Override
+    public double calculateTermWeight(long termFrequency, int docFreq, long docCount) {
+        return QueryIndex.calculateTermWeight(termFrequency, docFreq, docCount);
+    }
+}
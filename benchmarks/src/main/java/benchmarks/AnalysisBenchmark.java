@@ -0,0 +1,89 @@
+package benchmarks;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the index and query analyzers on document sized text, and
+ * of QueryIndex.tokenizeString on topic sized text
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalysisBenchmark {
+    //<! Analyzer as it is passed on the command line
+    @Param({"custom", "english", "standard"})
+    public String analyzer;
+
+    private Analyzer mIndexAnalyzer;
+    private Analyzer mQueryAnalyzer;
+    private Object mQueryIndex;
+    private String mDocumentText;
+    private String mTopicText;
+
+    @Setup
+    public void setUp() throws Throwable {
+        try (Fixture fixture = new Fixture(1, 1)) {
+            // the most frequent words of the fixture play the role of the high frequency stop list
+            CharArraySet highFreqStopSet = new CharArraySet(fixture.mostFrequentWords(100), true);
+            mIndexAnalyzer = Engine.createAnalyzer(analyzer, "index", highFreqStopSet);
+            mQueryAnalyzer = Engine.createAnalyzer(analyzer, "query", highFreqStopSet);
+            mDocumentText = fixture.text(300);
+            mTopicText = fixture.text(60);
+        }
+        mQueryIndex = Engine.newQueryIndex(analyzer, "bm25");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mIndexAnalyzer.close();
+        mQueryAnalyzer.close();
+    }
+
+    /**
+     * Analyzes the text of a document as the index writer does
+     */
+    @Benchmark
+    public void indexAnalyzer(Blackhole blackhole) throws IOException {
+        analyze(mIndexAnalyzer, mDocumentText, blackhole);
+    }
+
+    /**
+     * Analyzes the text of a topic as the query builder does
+     */
+    @Benchmark
+    public void queryAnalyzer(Blackhole blackhole) throws IOException {
+        analyze(mQueryAnalyzer, mTopicText, blackhole);
+    }
+
+    /**
+     * Tokenizes the text of a topic with the shared query analyzer of the registry
+     */
+    @Benchmark
+    public List<String> tokenizeString() throws Throwable {
+        return Engine.tokenizeString(mQueryIndex, mTopicText);
+    }
+
+    private static void analyze(Analyzer analyzer, String text, Blackhole blackhole) throws IOException {
+        try (TokenStream stream = analyzer.tokenStream(null, new StringReader(text))) {
+            CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                blackhole.consume(termAttribute);
+            }
+            stream.end();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package benchmarks;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Gives the benchmarks access to the classes of the search engine through EngineBridge,
+ * the only class that is looked up by name. The bridge is a constant of a single
+ * implementation, which lets the JIT compiler inline its calls like direct ones.
+ */
+final class Engine {
+    private static final EngineAccess cENGINE = loadBridge();
+
+    private Engine() {
+    }
+
+    /**
+     * Indexes the four collections with Parser.createIndex
+     */
+    static boolean createIndex(String analyzer, String similarity, String ftLocation, String fr94Location,
+                               String fbisLocation, String latimesLocation, String indexLocation) throws Exception {
+        return cENGINE.createIndex(analyzer, similarity, ftLocation, fr94Location, fbisLocation, latimesLocation,
+                indexLocation);
+    }
+
+    /**
+     * Splits a collection file into documents with Parser.parseFileWithJsoup
+     */
+    static void parseWithJsoup(File file, Consumer<Document> consumer) throws Exception {
+        cENGINE.parseWithJsoup(file, consumer);
+    }
+
+    /**
+     * Splits a collection file into documents with TrecDocumentReader.read
+     */
+    static void parseWithMmap(File file, Consumer<Document> consumer) throws Exception {
+        cENGINE.parseWithMmap(file, consumer);
+    }
+
+    /**
+     * Extracts the fields of a raw document with Parser.formatDocument
+     */
+    static Map<?, ?> formatDocument(String docRaw) {
+        return cENGINE.formatDocument(docRaw);
+    }
+
+    /**
+     * Creates an analyzer with AnalyzerSimilarityFactory.createAnalyzer
+     */
+    static Analyzer createAnalyzer(String analyzerType, String stage, CharArraySet highFreqStopSet) {
+        return cENGINE.createAnalyzer(analyzerType, stage, highFreqStopSet);
+    }
+
+    static Object newQueryIndex(String analyzer, String similarity) {
+        return cENGINE.newQueryIndex(analyzer, similarity);
+    }
+
+    static List<String> tokenizeString(Object queryIndex, String string) {
+        return cENGINE.tokenizeString(queryIndex, string);
+    }
+
+    /**
+     * Runs the first pass of a query and selects its expansion terms with QueryIndex.expandQuery
+     *
+     * @return the ResultCache.Expansion of the query
+     */
+    static Object expandQuery(Object queryIndex, Query query, IndexSearcher indexSearcher) throws Exception {
+        return cENGINE.expandQuery(queryIndex, query, indexSearcher);
+    }
+
+    static ExecutorService createSearchExecutor(Object queryIndex) {
+        return cENGINE.createSearchExecutor(queryIndex);
+    }
+
+    static IndexSearcher createSearcher(Object queryIndex, IndexReader indexReader, ExecutorService searchExecutor) {
+        return cENGINE.createSearcher(queryIndex, indexReader, searchExecutor);
+    }
+
+    static ScoreDoc[] searchTopic(Object queryIndex, String[] topic, IndexSearcher indexSearcher,
+                                  int maxResults) throws Exception {
+        return cENGINE.searchTopic(queryIndex, topic, indexSearcher, maxResults);
+    }
+
+    static void searchTopics(Object queryIndex, Map<Integer, String[]> topics, IndexSearcher indexSearcher,
+                             PrintWriter writer) throws Exception {
+        cENGINE.searchTopics(queryIndex, topics, indexSearcher, writer);
+    }
+
+    /**
+     * Weights a feedback term of a document with QueryIndex.calculateTermWeight
+     */
+    static double calculateTermWeight(long termFrequency, int docFreq, long docCount) {
+        return cENGINE.calculateTermWeight(termFrequency, docFreq, docCount);
+    }
+
+    private static EngineAccess loadBridge() {
+        try {
+            return (EngineAccess) Class.forName("EngineBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The EngineBridge of the benchmarks is missing", e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * The entry points of the search engine that the benchmarks measure. It is implemented
+ * by EngineBridge in the default package, which calls the engine directly, so a changed
+ * engine method breaks the build instead of the benchmark run. Instances of engine
+ * classes are passed as Object, since the benchmarks cannot name default package types.
+ */
+public interface EngineAccess {
+    boolean createIndex(String analyzer, String similarity, String ftLocation, String fr94Location,
+                        String fbisLocation, String latimesLocation, String indexLocation) throws Exception;
+
+    void parseWithJsoup(File file, Consumer<Document> consumer) throws Exception;
+
+    void parseWithMmap(File file, Consumer<Document> consumer) throws Exception;
+
+    Map<?, ?> formatDocument(String docRaw);
+
+    Analyzer createAnalyzer(String analyzerType, String stage, CharArraySet highFreqStopSet);
+
+    Object newQueryIndex(String analyzer, String similarity);
+
+    List<String> tokenizeString(Object queryIndex, String string);
+
+    Object expandQuery(Object queryIndex, Query query, IndexSearcher indexSearcher) throws Exception;
+
+    ExecutorService createSearchExecutor(Object queryIndex);
+
+    IndexSearcher createSearcher(Object queryIndex, IndexReader indexReader, ExecutorService searchExecutor);
+
+    ScoreDoc[] searchTopic(Object queryIndex, String[] topic, IndexSearcher indexSearcher, int maxResults)
+            throws Exception;
+
+    void searchTopics(Object queryIndex, Map<Integer, String[]> topics, IndexSearcher indexSearcher,
+                      PrintWriter writer) throws Exception;
+
+    double calculateTermWeight(long termFrequency, int docFreq, long docCount);
+}
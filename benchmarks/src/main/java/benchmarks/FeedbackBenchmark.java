@@ -0,0 +1,47 @@
+package benchmarks;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures QueryIndex.expandQuery, which runs the first pass of a topic and selects the
+ * expansion terms from the term vectors of the top documents
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedbackBenchmark {
+    private final List<Query> mQueries = new ArrayList<>();
+    private int mNext;
+
+    @Setup
+    public void setUp(IndexState index) throws Throwable {
+        // the first pass query of every topic from its title and description
+        for (String[] topic : index.mTopicList) {
+            BooleanQuery.Builder query = new BooleanQuery.Builder();
+            for (String term : Engine.tokenizeString(index.mQueryIndex, topic[0] + " " + topic[1])) {
+                // "text" is FieldNames.TEXT
+                query.add(new TermQuery(new Term("text", term)), BooleanClause.Occur.SHOULD);
+            }
+            mQueries.add(query.build());
+        }
+    }
+
+    @Benchmark
+    public Object expandQuery(IndexState index) throws Throwable {
+        Query query = mQueries.get(mNext);
+        mNext = (mNext + 1) % mQueries.size();
+        return Engine.expandQuery(index.mQueryIndex, query, index.mSearcher);
+    }
+}
@@ -0,0 +1,188 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * A small TREC-format collection that is generated from a seed, so every benchmark run
+ * sees the same documents and topics. Word frequencies follow a Zipf distribution like
+ * those of natural text. The documents are spread over the four collection directories
+ * the engine expects.
+ */
+final class Fixture implements AutoCloseable {
+    //<! Names of the collection directories in the order Parser.createIndex expects them
+    static final String[] cCOLLECTIONS = {"ft", "fr94", "fbis", "latimes"};
+    //<! Seed of the generated words, documents and topics
+    private static final long cSEED = 42;
+    //<! Number of distinct words
+    private static final int cVOCABULARY_SIZE = 20000;
+    //<! Number of words of a document's text
+    private static final int cWORDS_PER_DOCUMENT = 300;
+
+    private final Path mRoot;
+    private final String[] mVocabulary;
+    private final double[] mCumulativeFrequencies;
+    private final Random mRandom = new Random(cSEED);
+    private final List<Path> mFiles = new ArrayList<>();
+
+    /**
+     * Generates the collection in a new temporary directory
+     *
+     * @param documents the number of documents
+     * @param documentsPerFile the number of documents of a collection file
+     */
+    Fixture(int documents, int documentsPerFile) throws IOException {
+        mRoot = Files.createTempDirectory("trec-fixture");
+        mVocabulary = createVocabulary();
+        mCumulativeFrequencies = createZipfDistribution(mVocabulary.length);
+        for (String collection : cCOLLECTIONS) {
+            Files.createDirectory(mRoot.resolve(collection));
+        }
+        for (int first = 0; first < documents; first += documentsPerFile) {
+            String collection = cCOLLECTIONS[mFiles.size() % cCOLLECTIONS.length];
+            Path file = mRoot.resolve(collection).resolve(collection + mFiles.size());
+            writeFile(file, collection, first, Math.min(documents, first + documentsPerFile));
+            mFiles.add(file);
+        }
+    }
+
+    /**
+     * @return the directory of a collection
+     */
+    String location(String collection) {
+        return mRoot.resolve(collection).toString();
+    }
+
+    /**
+     * @return a directory for an index of the collection
+     */
+    String indexLocation() {
+        return mRoot.resolve("index").toString();
+    }
+
+    List<Path> files() {
+        return mFiles;
+    }
+
+    /**
+     * @return the raw text of the first document, as the engine's parser splits it off
+     */
+    String firstDocument() throws IOException {
+        String content = Files.readString(mFiles.get(0), StandardCharsets.UTF_8);
+        return content.split("<DOC>")[1];
+    }
+
+    /**
+     * Generates topics of the same shape as the TREC topics: a short title, a one
+     * sentence description and a longer narrative
+     *
+     * @param count the number of topics
+     * @return maps the topic number to title, description and narrative
+     */
+    Map<Integer, String[]> createTopics(int count) {
+        Random random = new Random(cSEED + 1);
+        Map<Integer, String[]> topics = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            topics.put(401 + i, new String[]{
+                    words(random, 3, 50), words(random, 15, 0), words(random, 40, 0)});
+        }
+        return topics;
+    }
+
+    /**
+     * @param count the number of words
+     * @return the most frequent words of the collection
+     */
+    List<String> mostFrequentWords(int count) {
+        return Arrays.asList(mVocabulary).subList(0, count);
+    }
+
+    /**
+     * @return some text of the collection
+     */
+    String text(int words) {
+        return words(mRandom, words, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (Stream<Path> paths = Files.walk(mRoot)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void writeFile(Path file, String collection, int first, int end) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            for (int i = first; i < end; i++) {
+                writer.println("<DOC>");
+                writer.println("<DOCNO> " + collection.toUpperCase(Locale.ROOT) + "-" + i + " </DOCNO>");
+                writer.println("<HEADLINE>");
+                writer.println(words(mRandom, 8, 0));
+                writer.println("</HEADLINE>");
+                writer.println("<TEXT>");
+                for (int line = 0; line < cWORDS_PER_DOCUMENT; line += 15) {
+                    writer.println("<P> " + words(mRandom, 15, 0) + " &amp; </P>");
+                }
+                writer.println("</TEXT>");
+                writer.println("</DOC>");
+            }
+        }
+    }
+
+    /**
+     * Draws words from the Zipf distribution
+     *
+     * @param skipped the number of most frequent words that are never drawn
+     */
+    private String words(Random random, int count, int skipped) {
+        StringJoiner words = new StringJoiner(" ");
+        double low = skipped == 0 ? 0 : mCumulativeFrequencies[skipped - 1];
+        for (int i = 0; i < count; i++) {
+            double target = low + random.nextDouble() * (1 - low);
+            int index = Arrays.binarySearch(mCumulativeFrequencies, target);
+            words.add(mVocabulary[Math.min(mVocabulary.length - 1, index < 0 ? -index - 1 : index)]);
+        }
+        return words.toString();
+    }
+
+    private static String[] createVocabulary() {
+        Random random = new Random(cSEED);
+        Set<String> vocabulary = new LinkedHashSet<>();
+        while (vocabulary.size() < cVOCABULARY_SIZE) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + random.nextInt(8);
+            for (int i = 0; i < length; i++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            vocabulary.add(word.toString());
+        }
+        return vocabulary.toArray(new String[0]);
+    }
+
+    private static double[] createZipfDistribution(int size) {
+        double[] cumulative = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+}
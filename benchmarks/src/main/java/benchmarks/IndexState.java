@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An index of the fixture that is built with Parser.createIndex, and the QueryIndex
+ * searching it. It is built once per trial and shared by the threads of a benchmark.
+ */
+@State(Scope.Benchmark)
+public class IndexState {
+    //<! Analyzer as it is passed on the command line
+    @Param({"english"})
+    public String analyzer;
+    //<! Similarity as it is passed on the command line
+    @Param({"bm25"})
+    public String similarity;
+    //<! Number of documents of the index
+    @Param({"20000"})
+    public int documents;
+
+    Fixture mFixture;
+    DirectoryReader mReader;
+    Object mQueryIndex;
+    ExecutorService mSearchExecutor;
+    IndexSearcher mSearcher;
+    Map<Integer, String[]> mTopics;
+    List<String[]> mTopicList;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        mFixture = new Fixture(documents, 1000);
+        String[] locations = new String[Fixture.cCOLLECTIONS.length];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = mFixture.location(Fixture.cCOLLECTIONS[i]);
+        }
+        if (!Engine.createIndex(analyzer, similarity, locations[0], locations[1], locations[2], locations[3],
+                mFixture.indexLocation())) {
+            throw new IllegalStateException("Could not create the index of the fixture");
+        }
+        mReader = DirectoryReader.open(FSDirectory.open(Paths.get(mFixture.indexLocation())));
+        mQueryIndex = Engine.newQueryIndex(analyzer, similarity);
+        mSearchExecutor = Engine.createSearchExecutor(mQueryIndex);
+        mSearcher = Engine.createSearcher(mQueryIndex, mReader, mSearchExecutor);
+        mTopics = mFixture.createTopics(50);
+        mTopicList = new ArrayList<>(mTopics.values());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mSearchExecutor.shutdownNow();
+        mReader.close();
+        mReader.directory().close();
+        mFixture.close();
+    }
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast collection files are split into documents, with both document
+ * readers, and how fast a single raw document is turned into its fields
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+    private Fixture mFixture;
+    private File mFile;
+    private String mDocument;
+
+    @Setup
+    public void setUp() throws Exception {
+        mFixture = new Fixture(500, 500);
+        mFile = mFixture.files().get(0).toFile();
+        mDocument = mFixture.firstDocument();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        mFixture.close();
+    }
+
+    /**
+     * Parses a collection file of 500 documents
+     */
+    @Benchmark
+    public void parseFile(Reader reader, Blackhole blackhole) throws Throwable {
+        if (reader.reader.equals("jsoup")) {
+            Engine.parseWithJsoup(mFile, blackhole::consume);
+        } else {
+            Engine.parseWithMmap(mFile, blackhole::consume);
+        }
+    }
+
+    /**
+     * Extracts the fields of one document with Parser.formatDocument
+     */
+    @Benchmark
+    public Object formatDocument() throws Throwable {
+        return Engine.formatDocument(mDocument);
+    }
+
+    /**
+     * Selects the reader, only parseFile depends on it
+     */
+    @State(Scope.Benchmark)
+    public static class Reader {
+        //<! Reader that splits the collection files: "jsoup" or "mmap"
+        @Param({"jsoup", "mmap"})
+        public String reader;
+    }
+}
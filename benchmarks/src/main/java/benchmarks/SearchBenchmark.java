@@ -0,0 +1,43 @@
+package benchmarks;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of evaluating topics: a single topic with query expansion, and
+ * the whole topic set as queryMap evaluates it. The result cache is disabled, otherwise
+ * every topic after the first evaluation would be a cache hit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dcache.size=0")
+public class SearchBenchmark {
+    private final PrintWriter mRankings = new PrintWriter(Writer.nullWriter());
+    private int mNext;
+
+    /**
+     * Evaluates the next topic and returns its 1000 hits
+     */
+    @Benchmark
+    public ScoreDoc[] searchTopic(IndexState index) throws Throwable {
+        String[] topic = index.mTopicList.get(mNext);
+        mNext = (mNext + 1) % index.mTopicList.size();
+        return Engine.searchTopic(index.mQueryIndex, topic, index.mSearcher, 1000);
+    }
+
+    /**
+     * Evaluates all 50 topics concurrently and writes their rankings
+     */
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+    public void searchTopics(IndexState index) throws Throwable {
+        Engine.searchTopics(index.mQueryIndex, index.mTopics, index.mSearcher, mRankings);
+    }
+}
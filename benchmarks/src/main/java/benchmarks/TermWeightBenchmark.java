@@ -0,0 +1,46 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures QueryIndex.calculateTermWeight, which weights every candidate expansion term
+ * of every feedback document. The term statistics are drawn from a seed: term
+ * frequencies are mostly small and document frequencies span rare to common terms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TermWeightBenchmark {
+    //<! Number of term statistics that are weighted per invocation, about the candidates of a topic
+    private static final int cTERMS = 4096;
+    //<! Number of documents of the index the statistics belong to
+    private static final long cDOC_COUNT = 500000;
+
+    private final long[] mTermFrequencies = new long[cTERMS];
+    private final int[] mDocFreqs = new int[cTERMS];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < cTERMS; i++) {
+            mTermFrequencies[i] = 1 + (long) Math.floor(-Math.log(1 - random.nextDouble()) * 3);
+            mDocFreqs[i] = 1 + (int) Math.pow(cDOC_COUNT, random.nextDouble());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(cTERMS)
+    public double calculateTermWeight() {
+        double sum = 0;
+        for (int i = 0; i < cTERMS; i++) {
+            sum += Engine.calculateTermWeight(mTermFrequencies[i], mDocFreqs[i], cDOC_COUNT);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,63 @@
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+
+import java.io.FileNotFoundException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out one shared analyzer per analyzer type and stage. The high frequency stop
+ * word list is read only once. Analyzers are thread-safe and reuse their token stream
+ * components per thread, so sharing them avoids rebuilding the analysis chain for
+ * every string that is tokenized.
+ */
+public class AnalyzerRegistry {
+    //<! The shared analyzers keyed by type and stage
+    private static final Map<String, Analyzer> cANALYZERS = new ConcurrentHashMap<>();
+    //<! The high frequency stop words, null until they are first needed
+    private static volatile CharArraySet cHighFreqStopSet;
+
+    /**
+     * Returns the shared analyzer of a type and stage and creates it on first use
+     *
+     * @param analyzerType the analyzer that should be returned
+     * @param stage "index" or "query"
+     * @return the respective analyzer
+     * @throws FileNotFoundException if the high frequency stop word list could not be read
+     */
+    public static Analyzer getAnalyzer(String analyzerType, String stage) throws FileNotFoundException {
+        String key = analyzerType.toLowerCase(Locale.ROOT) + "/" + stage.toLowerCase(Locale.ROOT);
+        Analyzer analyzer = cANALYZERS.get(key);
+        if (analyzer == null) {
+            synchronized (AnalyzerRegistry.class) {
+                analyzer = cANALYZERS.get(key);
+                if (analyzer == null) {
+                    analyzer = AnalyzerSimilarityFactory.createAnalyzer(analyzerType, stage, getHighFreqStopSet());
+                    cANALYZERS.put(key, analyzer);
+                }
+            }
+        }
+        return analyzer;
+    }
+
+    /**
+     * Drops the stop word list and all analyzers, so they are rebuilt from the current
+     * high frequency word list on next use. Analyzers that were handed out before stay
+     * usable, e.g. by a running index writer, and are not closed.
+     */
+    public static synchronized void reload() {
+        cHighFreqStopSet = null;
+        cANALYZERS.clear();
+    }
+
+    /**
+     * @return the high frequency stop words, read from the word list on first use
+     */
+    private static CharArraySet getHighFreqStopSet() throws FileNotFoundException {
+        if (cHighFreqStopSet == null) {
+            cHighFreqStopSet = CharArraySet.unmodifiableSet(AnalyzerSimilarityFactory.loadHighFreqStopSet());
+        }
+        return cHighFreqStopSet;
+    }
+}
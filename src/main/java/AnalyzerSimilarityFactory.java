@@ -8,6 +8,9 @@ import org.apache.lucene.search.similarities.*;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
 
 public class AnalyzerSimilarityFactory {
@@ -16,13 +19,23 @@ public class AnalyzerSimilarityFactory {
     private static final String cFREQ_LIST_LOCATION = "./freqlist.txt";
 
     /**
-     * This method constructs and returns different types of
-     * analyzers based on an input string
+     * This method returns the shared analyzer of the given type from the
+     * AnalyzerRegistry
      *
      * @param analyzerType the analyzer that should be returned
+     * @param stage "index" or "query"
      * @return the respective analyzer
      */
     public static Analyzer getAnalyzer(String analyzerType, String stage) throws FileNotFoundException {
+        return AnalyzerRegistry.getAnalyzer(analyzerType, stage);
+    }
+
+    /**
+     * This method reads the high frequency stop words from the word list
+     *
+     * @return the high frequency stop words. Empty if no word list exists yet
+     */
+    static CharArraySet loadHighFreqStopSet() throws FileNotFoundException {
 
         File file = new File(cFREQ_LIST_LOCATION);
 
@@ -38,6 +51,19 @@ public class AnalyzerSimilarityFactory {
 
             HighFreqStopSet.addAll(HighFreqstopWordlist);
         }
+        return HighFreqStopSet;
+    }
+
+    /**
+     * This method constructs and returns different types of
+     * analyzers based on an input string
+     *
+     * @param analyzerType the analyzer that should be returned
+     * @param stage "index" or "query"
+     * @param HighFreqStopSet the high frequency stop words used by the custom analyzers
+     * @return the respective analyzer
+     */
+    static Analyzer createAnalyzer(String analyzerType, String stage, CharArraySet HighFreqStopSet) {
 
         if(analyzerType.equalsIgnoreCase("standard")) {
             return new StandardAnalyzer();
@@ -62,22 +88,51 @@ public class AnalyzerSimilarityFactory {
 
     /**
      * This method constructs and returns different types of
-     * similarities based on an input string
+     * similarities based on an input string. The parameters of a similarity
+     * can follow its name, e.g. "bm25:k1=1.2,b=0.75" or "lmd:mu=1000".
      *
      * @param similaritiesType the similarity that should be returned
      * @return the respective similarity
      */
     public static Similarity getSimilarity(String similaritiesType){
-        if(similaritiesType.equalsIgnoreCase("bm25")) {
-            return new BM25Similarity(1.1F,0.9F);
+        String[] nameAndParameters = similaritiesType.split(":", 2);
+        String name = nameAndParameters[0];
+        Map<String, Float> parameters = parseParameters(nameAndParameters.length > 1 ? nameAndParameters[1] : "");
+        if(name.equalsIgnoreCase("bm25")) {
+            return new BM25Similarity(parameters.getOrDefault("k1", 1.1F), parameters.getOrDefault("b", 0.9F));
         }
-        if(similaritiesType.equalsIgnoreCase("classic")) {
+        if(name.equalsIgnoreCase("classic")) {
             return new ClassicSimilarity();
         }
-        if(similaritiesType.equalsIgnoreCase("lmd")) {
-            return new LMDirichletSimilarity();
+        if(name.equalsIgnoreCase("lmd")) {
+            return new LMDirichletSimilarity(parameters.getOrDefault("mu", 2000F));
         }
         System.out.println("WARNING! NO VALID SIMILARITY SELECTED");
         return new BM25Similarity();
     }
+
+    /**
+     * Parses the parameters of a similarity
+     *
+     * @param parameters comma separated name=value pairs, e.g. "k1=1.2,b=0.75"
+     * @return the values by name
+     */
+    private static Map<String, Float> parseParameters(String parameters) {
+        Map<String, Float> values = new HashMap<>();
+        for (String parameter : parameters.split(",")) {
+            String[] nameAndValue = parameter.split("=", 2);
+            if (nameAndValue.length != 2) {
+                if (!parameter.isBlank()) {
+                    System.out.println("WARNING! IGNORING SIMILARITY PARAMETER " + parameter);
+                }
+                continue;
+            }
+            try {
+                values.put(nameAndValue[0].trim().toLowerCase(Locale.ROOT), Float.parseFloat(nameAndValue[1].trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("WARNING! IGNORING SIMILARITY PARAMETER " + parameter);
+            }
+        }
+        return values;
+    }
 }
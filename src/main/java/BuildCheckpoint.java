@@ -0,0 +1,278 @@
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Commits a full build of an index periodically, so a build that crashed or was stopped
+ * resumes from its last checkpoint instead of starting over. The user data of every
+ * commit says whether the build is complete, and holds the manifest of the files whose
+ * documents were all added before the commit, together with the progress per collection
+ * and the last indexed file. The documents of a file that was only partly indexed are
+ * deleted when the build resumes, and the file is indexed again.
+ */
+public class BuildCheckpoint {
+    //<! Commit user data key of the state of the build
+    private static final String cSTATE_KEY = "build.state";
+    //<! State of a build that has not finished yet
+    private static final String cINCOMPLETE = "incomplete";
+    //<! State of a finished build
+    private static final String cCOMPLETE = "complete";
+    //<! Commit user data key of the indexed and total files per collection
+    private static final String cPROGRESS_KEY = "build.progress";
+    //<! Commit user data key of the file that was indexed last
+    private static final String cLAST_FILE_KEY = "build.lastFile";
+    //<! Interval in seconds in which a build is committed, 0 commits only at the start and the end
+    private static final long cINTERVAL_SECONDS = Long.getLong("indexing.checkpointSeconds", 300);
+
+    //<! The writer of the build
+    private final IndexWriter mIndexWriter;
+    //<! The files whose documents were all added up to the last checkpoint
+    private final IndexManifest mIndexedFiles;
+    //<! The collection directories of the build
+    private final String[] mLocations;
+    //<! The number of files per collection directory
+    private final int[] mTotalFiles;
+    //<! Paths and descriptions of the files whose documents were all added since the last checkpoint
+    private final Queue<Map.Entry<String, String>> mNewlyIndexedFiles = new ConcurrentLinkedQueue<>();
+    //<! Commits the build periodically
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+    //<! The file that was indexed last, empty before the first one
+    private String mLastFile = "";
+    //<! Whether the build finished or failed, no checkpoint is committed afterwards
+    private boolean mStopped;
+
+    /**
+     * @param indexWriter the writer of the build
+     * @param indexedFiles the files that are already indexed, empty for a new build
+     * @param locations the collection directories of the build
+     * @param files all files of the build
+     */
+    BuildCheckpoint(IndexWriter indexWriter, IndexManifest indexedFiles, String[] locations, List<File> files) {
+        mIndexWriter = indexWriter;
+        mIndexedFiles = indexedFiles;
+        mLocations = locations;
+        mTotalFiles = new int[locations.length];
+        for (File file : files) {
+            int location = locationOf(file.getPath());
+            if (location >= 0) {
+                mTotalFiles[location]++;
+            }
+        }
+    }
+
+    /**
+     * Reads the files a build already indexed from the last commit of its index
+     *
+     * @param directory the directory of the index
+     * @return the manifest of the indexed files if the last commit belongs to a build that
+     *         has not finished, otherwise null
+     * @throws IOException if the commit could not be read
+     */
+    static IndexManifest unfinishedBuild(Directory directory) throws IOException {
+        if (!DirectoryReader.indexExists(directory)) {
+            return null;
+        }
+        Map<String, String> userData = SegmentInfos.readLatestCommit(directory).getUserData();
+        if (!cINCOMPLETE.equals(userData.get(cSTATE_KEY))) {
+            return null;
+        }
+        return IndexManifest.fromCommitData(userData.entrySet());
+    }
+
+    /**
+     * Checks whether the index at a location cannot be searched as it is, because a build
+     * of it or of one of its shards did not finish. Indexes built before builds were
+     * checkpointed have no state and count as complete.
+     *
+     * @param indexLocation the location of a single or a sharded index
+     * @return true if the location holds no commit or the build of a commit did not finish
+     * @throws IOException if a commit could not be read
+     */
+    static boolean isIncomplete(Path indexLocation) throws IOException {
+        if (ShardedIndex.isSingleIndex(indexLocation)) {
+            return isIncompleteCommit(indexLocation);
+        }
+        if (!Files.isDirectory(indexLocation)) {
+            return true;
+        }
+        boolean incomplete = true;
+        try (Stream<Path> shards = Files.list(indexLocation)) {
+            for (Path shard : (Iterable<Path>) shards.filter(Files::isDirectory)::iterator) {
+                if (isIncompleteCommit(shard)) {
+                    return true;
+                }
+                incomplete = false;
+            }
+        }
+        return incomplete;
+    }
+
+    private static boolean isIncompleteCommit(Path indexLocation) throws IOException {
+        try (Directory directory = FSDirectory.open(indexLocation)) {
+            return !DirectoryReader.indexExists(directory) || unfinishedBuild(directory) != null;
+        }
+    }
+
+    /**
+     * @param manifest the files an index holds the documents of
+     * @return the commit user data of a complete index with the manifest, for writers
+     *         that update an index after its build
+     */
+    static Map<String, String> completeCommitData(IndexManifest manifest) {
+        Map<String, String> commitData = new HashMap<>(manifest.toCommitData());
+        commitData.put(cSTATE_KEY, cCOMPLETE);
+        return commitData;
+    }
+
+    /**
+     * Commits the build as incomplete and starts the periodic checkpoints
+     *
+     * @throws IOException if the index could not be committed
+     */
+    public void start() throws IOException {
+        checkpoint();
+        if (cINTERVAL_SECONDS > 0) {
+            mScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    System.out.println("Error while committing a checkpoint of the index");
+                    e.printStackTrace();
+                }
+            }, cINTERVAL_SECONDS, cINTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Remembers a file whose documents were all handed to the index writer, it becomes
+     * part of the next checkpoint. The checksum of the file is computed here, by the
+     * indexing thread, so a checkpoint does not read files while it holds its lock.
+     *
+     * @param file the collection file
+     * @throws IOException if the file could not be read
+     */
+    public void fileIndexed(File file) throws IOException {
+        mNewlyIndexedFiles.add(new AbstractMap.SimpleImmutableEntry<>(file.getPath(), IndexManifest.describe(file)));
+    }
+
+    /**
+     * Commits the documents that were added so far, together with the manifest of the
+     * completely indexed files
+     *
+     * @throws IOException if the index could not be committed
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (mStopped) {
+            return;
+        }
+        commit(cINCOMPLETE);
+        System.out.println("Checkpoint: " + progress());
+    }
+
+    /**
+     * Stops the periodic checkpoints and sets the state the writer commits when it is
+     * closed. A finished build is flagged complete, an interrupted one stays resumable.
+     *
+     * @param complete whether all files were indexed
+     * @throws IOException if the commit user data could not be set
+     */
+    public void finish(boolean complete) throws IOException {
+        stopCheckpoints();
+        synchronized (this) {
+            setCommitData(complete ? cCOMPLETE : cINCOMPLETE);
+        }
+    }
+
+    /**
+     * Stops the periodic checkpoints after the build failed, the last checkpoint stays the
+     * state the build resumes from
+     */
+    public void abort() {
+        stopCheckpoints();
+    }
+
+    /**
+     * Cancels the scheduled checkpoints and waits for a running one. The running commit
+     * is not interrupted, since an interrupted IndexWriter.commit() closes the writer.
+     */
+    private void stopCheckpoints() {
+        synchronized (this) {
+            mStopped = true;
+        }
+        mScheduler.shutdown();
+        try {
+            mScheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commit(String state) throws IOException {
+        setCommitData(state);
+        mIndexWriter.commit();
+    }
+
+    /**
+     * Moves the newly indexed files into the manifest and sets the commit user data
+     */
+    private void setCommitData(String state) throws IOException {
+        Map.Entry<String, String> file;
+        while ((file = mNewlyIndexedFiles.poll()) != null) {
+            mIndexedFiles.put(file.getKey(), file.getValue());
+            mLastFile = file.getKey();
+        }
+        Map<String, String> commitData = new HashMap<>(mIndexedFiles.toCommitData());
+        commitData.put(cSTATE_KEY, state);
+        commitData.put(cPROGRESS_KEY, progress());
+        commitData.put(cLAST_FILE_KEY, mLastFile);
+        mIndexWriter.setLiveCommitData(commitData.entrySet());
+    }
+
+    /**
+     * @return the indexed and total files per collection, e.g. "ft=120/400,fbis=0/500"
+     */
+    private String progress() {
+        int[] indexedFiles = new int[mLocations.length];
+        for (String path : mIndexedFiles.paths()) {
+            int location = locationOf(path);
+            if (location >= 0) {
+                indexedFiles[location]++;
+            }
+        }
+        StringJoiner progress = new StringJoiner(",");
+        for (int i = 0; i < mLocations.length; i++) {
+            progress.add(new File(mLocations[i]).getName() + "=" + indexedFiles[i] + "/" + mTotalFiles[i]);
+        }
+        return progress.toString();
+    }
+
+    /**
+     * @return the index of the collection directory a file is in, -1 if it is in none of them
+     */
+    private int locationOf(String path) {
+        for (int i = 0; i < mLocations.length; i++) {
+            if (path.startsWith(new File(mLocations[i]).getPath() + File.separator)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
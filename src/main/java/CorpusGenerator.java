@@ -0,0 +1,378 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Generates a synthetic collection in the layout and SGML markup of the TREC disks 4
+ * and 5, together with topics and their relevance judgements. Word frequencies follow
+ * a Zipf distribution over a generated vocabulary. Every topic has its own words, and a
+ * share of the documents is written about a topic, so query expansion has something to
+ * find. The output depends only on the seed and the settings, also when the files are
+ * written in parallel.
+ */
+public class CorpusGenerator {
+    //<! Seed of the vocabulary, the documents and the topics
+    private static final long cSEED = Long.getLong("generator.seed", 42);
+    //<! Number of distinct words
+    private static final int cVOCABULARY_SIZE = Integer.getInteger("generator.vocabularySize", 100000);
+    //<! Exponent of the Zipf distribution of the word frequencies, 1 is typical of English text
+    private static final double cZIPF_EXPONENT = Double.parseDouble(System.getProperty("generator.zipfExponent", "1.0"));
+    //<! Mean number of words of a document's text
+    private static final int cDOCUMENT_LENGTH = Integer.getInteger("generator.documentLength", 400);
+    //<! Share of the documents that are written about a topic and judged relevant to it
+    private static final double cRELEVANT_RATE = Double.parseDouble(System.getProperty("generator.relevantRate", "0.01"));
+    //<! Share of the words of a relevant document that are words of its topic
+    private static final double cTOPIC_WORD_RATE = 0.1;
+    //<! Number of words that describe a topic
+    private static final int cTOPIC_WORDS = 8;
+
+    //<! The collections with their share of the documents, as in the TREC disks 4 and 5
+    private static final CollectionLayout[] cCOLLECTIONS = {
+            new CollectionLayout("ft", 0.40, 500),
+            new CollectionLayout("fbis", 0.25, 300),
+            new CollectionLayout("latimes", 0.25, 300),
+            new CollectionLayout("fr94", 0.10, 150)};
+
+    //<! The generated words, the most frequent first
+    private final String[] mVocabulary;
+    //<! Cumulative probabilities of the words
+    private final double[] mCumulativeFrequencies;
+    //<! The words of every topic
+    private final String[][] mTopicWords;
+
+    /**
+     * Creates the vocabulary and the words of the topics
+     *
+     * @param topics the number of topics
+     */
+    CorpusGenerator(int topics) {
+        Random random = new Random(cSEED);
+        mVocabulary = createVocabulary(random, cVOCABULARY_SIZE);
+        mCumulativeFrequencies = createZipfDistribution(cVOCABULARY_SIZE, cZIPF_EXPONENT);
+        // topic words are neither so frequent that they are stop words nor so rare that no document has them
+        int first = Math.max(1, cVOCABULARY_SIZE / 200);
+        int range = Math.max(cTOPIC_WORDS, cVOCABULARY_SIZE / 10 - first);
+        mTopicWords = new String[topics][cTOPIC_WORDS];
+        for (String[] topicWords : mTopicWords) {
+            for (int i = 0; i < cTOPIC_WORDS; i++) {
+                topicWords[i] = mVocabulary[Math.min(cVOCABULARY_SIZE - 1, first + random.nextInt(range))];
+            }
+        }
+    }
+
+    /**
+     * Writes the collections to resources/newsarticles/Assignment Two, the topics to
+     * resources/topics/topics and the relevance judgements to resources/qrels below the
+     * given directory, so the engine can be run from there
+     *
+     * @param root the directory the resources are written to
+     * @param documents the number of documents over all collections
+     * @throws IOException if a file could not be written
+     */
+    public void generate(File root, int documents) throws IOException {
+        File resources = new File(root, "resources");
+        File collections = new File(resources, "newsarticles/Assignment Two");
+        File topicsDirectory = new File(resources, "topics");
+        if (!topicsDirectory.mkdirs() && !topicsDirectory.isDirectory()) {
+            throw new IOException("Could not create " + topicsDirectory);
+        }
+
+        // each file draws from a random generator of its own, so the files can be written in any order
+        List<FileTask> tasks = new ArrayList<>();
+        int firstDocument = 0;
+        for (int c = 0; c < cCOLLECTIONS.length; c++) {
+            CollectionLayout collection = cCOLLECTIONS[c];
+            int collectionDocuments = c == cCOLLECTIONS.length - 1 ? documents - firstDocument
+                    : (int) Math.round(documents * collection.mShare);
+            for (int first = 0; first < collectionDocuments; first += collection.mDocumentsPerFile) {
+                int count = Math.min(collection.mDocumentsPerFile, collectionDocuments - first);
+                tasks.add(new FileTask(collection, tasks.size(), first, count));
+            }
+            firstDocument += collectionDocuments;
+        }
+        List<List<String>> judgements = new ArrayList<>(Collections.nCopies(tasks.size(), null));
+        try {
+            IntStream.range(0, tasks.size()).parallel()
+                    .forEach(i -> judgements.set(i, writeFile(collections, tasks.get(i))));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        writeTopics(new File(topicsDirectory, "topics"));
+        try (PrintWriter writer = new PrintWriter(new File(resources, "qrels"), StandardCharsets.UTF_8)) {
+            List<String> qrels = new ArrayList<>();
+            judgements.forEach(qrels::addAll);
+            qrels.sort(Comparator.comparing((String line) -> Integer.parseInt(line.substring(0, line.indexOf(' '))))
+                    .thenComparing(line -> line));
+            qrels.forEach(writer::println);
+        }
+    }
+
+    /**
+     * Writes one collection file
+     *
+     * @return the relevance judgements of its documents
+     */
+    private List<String> writeFile(File collections, FileTask task) {
+        Random random = new Random(cSEED * 31 + task.mNumber);
+        List<String> judgements = new ArrayList<>();
+        File file = task.mCollection.file(collections, task.mNumber);
+        file.getParentFile().mkdirs();
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < task.mCount; i++) {
+                String docno = task.mCollection.docno(task.mNumber, task.mFirst + i);
+                int topic = random.nextDouble() < cRELEVANT_RATE ? random.nextInt(mTopicWords.length) : -1;
+                if (topic >= 0) {
+                    judgements.add((401 + topic) + " 0 " + docno + " 1");
+                }
+                writeDocument(writer, task.mCollection.mName, docno, topic, random);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return judgements;
+    }
+
+    /**
+     * Writes a document in the markup of its collection
+     *
+     * @param topic the topic the document is about, -1 for none
+     */
+    private void writeDocument(PrintWriter writer, String collection, String docno, int topic, Random random) {
+        // document lengths are skewed like those of news articles: most are short, some are long
+        int length = (int) Math.max(20, cDOCUMENT_LENGTH * Math.exp(random.nextGaussian() * 0.6 - 0.18));
+        String headline = text(random, 4 + random.nextInt(8), topic);
+        writer.println("<DOC>");
+        switch (collection) {
+            case "ft":
+                writer.println("<DOCNO>" + docno + "</DOCNO>");
+                writer.println("<PROFILE>_AN-" + Integer.toHexString(random.nextInt()).toUpperCase(Locale.ROOT)
+                        + "FT</PROFILE>");
+                writer.println("<DATE>9" + (1 + random.nextInt(4)) + "0514");
+                writer.println("</DATE>");
+                writer.println("<HEADLINE>");
+                writer.println("FT  14 MAY 91 / " + headline);
+                writer.println("</HEADLINE>");
+                writer.println("<TEXT>");
+                writeParagraphs(writer, random, length, topic, "", "");
+                writer.println("</TEXT>");
+                writer.println("<PUB>The Financial Times");
+                writer.println("</PUB>");
+                break;
+            case "fbis":
+                writer.println("<DOCNO> " + docno + " </DOCNO>");
+                writer.println("<HT>  \"cr" + String.format("%014d", random.nextLong() & 0xFFFFFFFFFFL) + "\" </HT>");
+                writer.println("<HEADER>");
+                writer.println("<DATE1>  1 March 1994 </DATE1>");
+                writer.println("<H3> <TI>   " + headline + " </TI></H3>");
+                writer.println("</HEADER>");
+                writer.println("<TEXT>");
+                writer.println("Language: <F P=105> English </F>");
+                writeParagraphs(writer, random, length, topic, "", "");
+                writer.println("</TEXT>");
+                break;
+            case "latimes":
+                writer.println("<DOCNO> " + docno + " </DOCNO>");
+                writer.println("<DOCID> " + random.nextInt(200000) + " </DOCID>");
+                writer.println("<DATE>");
+                writer.println("<P>");
+                writer.println("January 1, 1989, Sunday, Home Edition ");
+                writer.println("</P>");
+                writer.println("</DATE>");
+                writer.println("<HEADLINE>");
+                writer.println("<P>");
+                writer.println(headline);
+                writer.println("</P>");
+                writer.println("</HEADLINE>");
+                writer.println("<TEXT>");
+                writeParagraphs(writer, random, length, topic, "<P>\n", "\n</P>");
+                writer.println("</TEXT>");
+                break;
+            default:
+                writer.println("<DOCNO> " + docno + " </DOCNO>");
+                writer.println("<PARENT> " + docno + " </PARENT>");
+                writer.println("<TEXT>");
+                writer.println(" ");
+                writer.println("<!-- PJG FTAG 4700 -->");
+                writer.println();
+                writer.println("<!-- PJG ITAG l=94 g=1 f=1 -->");
+                writer.println("<USDEPT>Department of Agriculture</USDEPT>");
+                writeParagraphs(writer, random, length, topic, "", " &hyph; &amp;");
+                writer.println("</TEXT>");
+                break;
+        }
+        writer.println("</DOC>");
+    }
+
+    /**
+     * Writes the words of a document's text in paragraphs
+     */
+    private void writeParagraphs(PrintWriter writer, Random random, int words, int topic,
+                                 String paragraphStart, String paragraphEnd) {
+        while (words > 0) {
+            int paragraph = Math.min(words, 30 + random.nextInt(60));
+            writer.println(paragraphStart + text(random, paragraph, topic) + paragraphEnd);
+            words -= paragraph;
+        }
+    }
+
+    /**
+     * Writes the topics in the format of the TREC topics file
+     */
+    private void writeTopics(File file) throws IOException {
+        Random random = new Random(cSEED + 1);
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            for (int topic = 0; topic < mTopicWords.length; topic++) {
+                String[] words = mTopicWords[topic];
+                writer.println("<top>");
+                writer.println();
+                writer.println("<num> Number: " + (401 + topic));
+                writer.println("<title> " + words[0] + " " + words[1] + " " + words[2]);
+                writer.println();
+                writer.println("<desc> Description:");
+                writer.println("What is known about " + words[0] + " " + words[1] + " " + words[2]
+                        + " and " + words[3] + " " + text(random, 4, -1) + "?");
+                writer.println();
+                writer.println("<narr> Narrative:");
+                writer.println("A relevant document mentions " + words[4] + " or " + words[5] + " together with "
+                        + words[6] + " " + words[7] + ". Documents about " + text(random, 6, -1)
+                        + " are not relevant.");
+                writer.println();
+                writer.println("</top>");
+                writer.println();
+            }
+        }
+    }
+
+    /**
+     * Draws words from the Zipf distribution. Words of the given topic are mixed in.
+     *
+     * @param topic the topic whose words are mixed in, -1 for none
+     */
+    private String text(Random random, int words, int topic) {
+        StringJoiner text = new StringJoiner(" ");
+        for (int i = 0; i < words; i++) {
+            if (topic >= 0 && random.nextDouble() < cTOPIC_WORD_RATE) {
+                text.add(mTopicWords[topic][random.nextInt(cTOPIC_WORDS)]);
+                continue;
+            }
+            int index = Arrays.binarySearch(mCumulativeFrequencies, random.nextDouble());
+            text.add(mVocabulary[Math.min(mVocabulary.length - 1, index < 0 ? -index - 1 : index)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Creates pronounceable words from syllables. Most of them are not English words, so
+     * the analyzers neither remove them as stop words nor stem them together.
+     */
+    private static String[] createVocabulary(Random random, int size) {
+        String consonants = "bcdfghjklmnprstvwz";
+        String vowels = "aeiou";
+        Set<String> vocabulary = new LinkedHashSet<>();
+        while (vocabulary.size() < size) {
+            StringBuilder word = new StringBuilder();
+            int syllables = 1 + random.nextInt(4);
+            for (int i = 0; i < syllables; i++) {
+                word.append(consonants.charAt(random.nextInt(consonants.length())));
+                word.append(vowels.charAt(random.nextInt(vowels.length())));
+            }
+            word.append(consonants.charAt(random.nextInt(consonants.length())));
+            vocabulary.add(word.toString());
+        }
+        return vocabulary.toArray(new String[0]);
+    }
+
+    /**
+     * @return the cumulative probabilities of the ranks of a Zipf distribution
+     */
+    private static double[] createZipfDistribution(int size, double exponent) {
+        double[] cumulative = new double[size];
+        double sum = 0;
+        for (int rank = 0; rank < size; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            cumulative[rank] /= sum;
+        }
+        return cumulative;
+    }
+
+    /**
+     * A collection of the TREC disks with its file layout and document numbers
+     */
+    private static class CollectionLayout {
+        final String mName;
+        final double mShare;
+        final int mDocumentsPerFile;
+
+        CollectionLayout(String name, double share, int documentsPerFile) {
+            mName = name;
+            mShare = share;
+            mDocumentsPerFile = documentsPerFile;
+        }
+
+        /**
+         * @return the file with the given number, e.g. ft/ft911/ft911_3
+         */
+        File file(File collections, int number) {
+            String directory = mName + (900 + number / 100);
+            return new File(collections, mName + "/" + directory + "/" + directory + "_" + number % 100);
+        }
+
+        /**
+         * @return the document number, e.g. FT911-3
+         */
+        String docno(int file, int document) {
+            switch (mName) {
+                case "ft":
+                    return "FT" + (900 + file / 100) + "-" + document;
+                case "fbis":
+                    return "FBIS3-" + document;
+                case "latimes":
+                    return "LA" + String.format("%06d", file) + "-" + String.format("%04d", document);
+                default:
+                    return "FR94" + String.format("%04d", file) + "-0-" + String.format("%05d", document);
+            }
+        }
+    }
+
+    /**
+     * A collection file that is to be written
+     */
+    private static class FileTask {
+        final CollectionLayout mCollection;
+        final int mNumber;
+        final int mFirst;
+        final int mCount;
+
+        FileTask(CollectionLayout collection, int number, int first, int count) {
+            mCollection = collection;
+            mNumber = number;
+            mFirst = first;
+            mCount = count;
+        }
+    }
+
+    /**
+     * Generates a collection
+     *
+     * @param args the directory the resources are written to, the number of documents and
+     *             optionally the number of topics (default 50)
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Usage: CorpusGenerator <directory> <documents> [topics]");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        int documents = Integer.parseInt(args[1]);
+        new CorpusGenerator(args.length == 3 ? Integer.parseInt(args[2]) : 50).generate(new File(args[0]), documents);
+        System.out.printf("Generated %d documents in %.1f s%n", documents, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,61 @@
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FileSwitchDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Opens the directories that indexes are searched from, with the strategy selected by
+ * index.directory. Memory-mapped indexes can preload their postings and norms, so the
+ * first queries do not fault the pages of the terms dictionary and postings in one by
+ * one. The other files, most of all the large stored fields and term vectors, are
+ * still mapped lazily.
+ */
+public class DirectoryFactory {
+    //<! How the index files are read: "mmap" maps them, "nio" reads them with positional reads, "fs" lets Lucene choose
+    private static final String cDIRECTORY = System.getProperty("index.directory", "mmap");
+    //<! Whether the postings and norms of a memory-mapped index are loaded into memory when it is opened
+    private static final boolean cPRELOAD = Boolean.getBoolean("index.preload");
+    //<! Extensions of the terms dictionary, postings and norms files
+    private static final Set<String> cPRELOAD_EXTENSIONS = Set.of("tim", "tip", "tmd", "doc", "pos", "pay",
+            "nvd", "nvm");
+
+    private DirectoryFactory() {
+    }
+
+    /**
+     * @param location the location of an index
+     * @return the directory the index is read from
+     * @throws IOException if the directory could not be opened
+     */
+    public static Directory open(Path location) throws IOException {
+        switch (cDIRECTORY.toLowerCase(Locale.ROOT)) {
+            case "nio":
+                return new NIOFSDirectory(location);
+            case "fs":
+                return FSDirectory.open(location);
+            case "mmap":
+                return openMMap(location);
+            default:
+                System.out.println("WARNING! NO VALID INDEX DIRECTORY SELECTED, USING MMAP");
+                return openMMap(location);
+        }
+    }
+
+    /**
+     * @return the directory that maps the index files, the postings and norms are preloaded if cPRELOAD is set
+     */
+    private static Directory openMMap(Path location) throws IOException {
+        if (!cPRELOAD) {
+            return new MMapDirectory(location);
+        }
+        MMapDirectory preloaded = new MMapDirectory(location);
+        preloaded.setPreload(true);
+        return new FileSwitchDirectory(cPRELOAD_EXTENSIONS, preloaded, new MMapDirectory(location), true);
+    }
+}
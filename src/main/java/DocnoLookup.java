@@ -0,0 +1,90 @@
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Translates between document ids and DOCNOs. DOCNOs are read from the sorted doc values
+ * of the DOCNO field, so the stored fields with the large document text are not
+ * decompressed. Indexes built before DOCNO had doc values are read from the stored field.
+ */
+public class DocnoLookup {
+    //<! The fields that are loaded for indexes without DOCNO doc values
+    private static final Set<String> cSTORED_FIELDS = Set.of(FieldNames.DOCNO.getName());
+
+    private DocnoLookup() {
+    }
+
+    /**
+     * @param indexReader the reader the hits belong to
+     * @param hits the hits
+     * @return the DOCNOs of the hits in the same order
+     * @throws IOException if the index could not be read
+     */
+    public static String[] docnos(IndexReader indexReader, ScoreDoc[] hits) throws IOException {
+        // doc values are read forward, so visit the hits in the order of their document ids
+        Integer[] order = new Integer[hits.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> hits[i].doc));
+
+        List<LeafReaderContext> leaves = indexReader.leaves();
+        String[] docnos = new String[hits.length];
+        LeafReaderContext leaf = null;
+        SortedDocValues docValues = null;
+        for (int i : order) {
+            int doc = hits[i].doc;
+            if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+                leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                docValues = leaf.reader().getSortedDocValues(FieldNames.DOCNO.getName());
+            }
+            if (docValues != null && docValues.advanceExact(doc - leaf.docBase)) {
+                docnos[i] = docValues.lookupOrd(docValues.ordValue()).utf8ToString();
+            } else {
+                Document document = leaf.reader().document(doc - leaf.docBase, cSTORED_FIELDS);
+                docnos[i] = document.get(FieldNames.DOCNO.getName());
+            }
+        }
+        return docnos;
+    }
+
+    /**
+     * Looks up a document by its DOCNO in the terms dictionary
+     *
+     * @param indexReader the reader that is searched
+     * @param docno the DOCNO of the document
+     * @return the id of the live document with the DOCNO, -1 if there is none
+     * @throws IOException if the index could not be read
+     */
+    public static int docId(IndexReader indexReader, String docno) throws IOException {
+        Term term = new Term(FieldNames.DOCNO.getName(), docno);
+        for (LeafReaderContext leaf : indexReader.leaves()) {
+            LeafReader reader = leaf.reader();
+            PostingsEnum postings = reader.postings(term, PostingsEnum.NONE);
+            if (postings == null) {
+                continue;
+            }
+            Bits liveDocs = reader.getLiveDocs();
+            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    return leaf.docBase + doc;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,414 @@
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.InPlaceMergeSorter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Scores runs against relevance judgements the way trec_eval does, without writing the
+ * run to a file first. The judgements of a topic are held in a small hash table of its
+ * judged DOCNOs and their relevance levels, so a retrieved document is looked up with
+ * about one string comparison. The rankings of a topic are ordered like trec_eval orders
+ * them, by descending score and ties by descending DOCNO, and the measures are averaged
+ * over the topics that are both retrieved and judged.
+ *
+ * Usage: java -cp target/LuceneIntro-1.0.jar Evaluator qrels-assignment2.part1 rankings.txt
+ */
+public class Evaluator {
+    //<! The judgements runs are evaluated against, nothing is evaluated if the file does not exist
+    private static final String cQRELS = System.getProperty("eval.qrels", "./qrels-assignment2.part1");
+    //<! The depths of the nDCG values
+    private static final String cNDCG_CUTOFFS = System.getProperty("eval.ndcgCutoffs", "10,20");
+    //<! The depths of the precision values
+    private static final int[] cPRECISION_CUTOFFS = {5, 10, 20};
+    //<! The depth of the recall value
+    private static final int cRECALL_CUTOFF = 1000;
+
+    //<! The judgements by topic id
+    private final Map<Integer, Judgements> mJudgements;
+    //<! The depths of the nDCG values
+    private final int[] mNdcgCutoffs;
+    //<! The names of the measures in the order of the values of a topic
+    private final String[] mMeasures;
+
+    private Evaluator(Map<Integer, Judgements> judgements) {
+        mJudgements = judgements;
+        mNdcgCutoffs = ndcgCutoffs();
+        List<String> measures = new ArrayList<>(List.of("num_ret", "num_rel", "num_rel_ret", "map"));
+        for (int cutoff : cPRECISION_CUTOFFS) {
+            measures.add("P_" + cutoff);
+        }
+        for (int cutoff : mNdcgCutoffs) {
+            measures.add("ndcg_cut_" + cutoff);
+        }
+        measures.add("recall_" + cRECALL_CUTOFF);
+        mMeasures = measures.toArray(new String[0]);
+    }
+
+    /**
+     * Prints the evaluation of a run file in the format of trec_eval
+     *
+     * @param args the qrels file and the run file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: Evaluator <qrels> <run>");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        Evaluator evaluator = load(args[0]);
+        long loaded = System.nanoTime();
+        Run run = evaluator.readRun(args[1]);
+        long end = System.nanoTime();
+        System.out.print(run.format());
+        System.out.printf("Loaded the judgements in %.1f ms, read and evaluated the run in %.1f ms%n",
+                (loaded - start) / 1e6, (end - loaded) / 1e6);
+    }
+
+    /**
+     * @return the evaluator of the judgements in eval.qrels, or null if the file does not exist
+     * @throws IOException if the file could not be read
+     */
+    public static Evaluator fromProperties() throws IOException {
+        if (cQRELS.isEmpty() || !new File(cQRELS).isFile()) {
+            return null;
+        }
+        return load(cQRELS);
+    }
+
+    /**
+     * Reads relevance judgements with one "topic iteration DOCNO relevance" line per judged document
+     *
+     * @param qrelsLocation the location of the qrels file
+     * @return the evaluator of the judgements
+     * @throws IOException if the file could not be read
+     */
+    public static Evaluator load(String qrelsLocation) throws IOException {
+        Map<Integer, List<String[]>> lines = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(qrelsLocation), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length != 4) {
+                    continue;
+                }
+                lines.computeIfAbsent(Integer.parseInt(fields[0]), topic -> new ArrayList<>()).add(fields);
+            }
+        }
+        Map<Integer, Judgements> judgements = new HashMap<>();
+        for (Map.Entry<Integer, List<String[]>> topic : lines.entrySet()) {
+            judgements.put(topic.getKey(), new Judgements(topic.getValue()));
+        }
+        return new Evaluator(judgements);
+    }
+
+    /**
+     * @return an empty run that collects the evaluations of its topics
+     */
+    public Run newRun() {
+        return new Run();
+    }
+
+    /**
+     * Reads and evaluates a run file with one "topic Q0 DOCNO rank score tag" line per retrieved document
+     *
+     * @param runLocation the location of the run file
+     * @return the evaluated run
+     * @throws IOException if the file could not be read
+     */
+    public Run readRun(String runLocation) throws IOException {
+        Map<Integer, List<String>> docnos = new LinkedHashMap<>();
+        Map<Integer, List<Double>> scores = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(runLocation), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 5) {
+                    continue;
+                }
+                int topic = Integer.parseInt(fields[0]);
+                docnos.computeIfAbsent(topic, t -> new ArrayList<>()).add(fields[2]);
+                scores.computeIfAbsent(topic, t -> new ArrayList<>()).add(Double.parseDouble(fields[4]));
+            }
+        }
+        Run run = newRun();
+        for (Map.Entry<Integer, List<String>> topic : docnos.entrySet()) {
+            List<Double> topicScores = scores.get(topic.getKey());
+            double[] values = new double[topicScores.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = topicScores.get(i);
+            }
+            run.add(topic.getKey(), topic.getValue().toArray(new String[0]), values);
+        }
+        return run;
+    }
+
+    /**
+     * @return the parsed values of eval.ndcgCutoffs, invalid values are left out
+     */
+    private static int[] ndcgCutoffs() {
+        List<Integer> cutoffs = new ArrayList<>();
+        for (String value : cNDCG_CUTOFFS.split(",")) {
+            try {
+                int cutoff = Integer.parseInt(value.trim());
+                if (cutoff > 0) {
+                    cutoffs.add(cutoff);
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            System.out.println("WARNING! INVALID NDCG CUTOFF " + value.trim() + ", IT IS IGNORED");
+        }
+        return cutoffs.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * The evaluated topics of one run
+     */
+    public class Run {
+        //<! The values of the measures by topic id
+        private final SortedMap<Integer, double[]> mTopics = new TreeMap<>();
+
+        private Run() {
+        }
+
+        /**
+         * Evaluates the ranking of a topic. A topic without judgements is ignored, like trec_eval does.
+         *
+         * @param topic the id of the topic
+         * @param docnos the DOCNOs of the retrieved documents
+         * @param scores the scores of the retrieved documents
+         */
+        public void add(int topic, String[] docnos, double[] scores) {
+            Judgements judgements = mJudgements.get(topic);
+            if (judgements == null) {
+                return;
+            }
+            int[] order = new int[docnos.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            // trec_eval ranks by descending score and breaks ties by descending DOCNO, whatever the ranks of the
+            // run are. The hits of a search already come by descending score, so mostly the ties are reordered
+            new InPlaceMergeSorter() {
+                @Override
+                protected int compare(int i, int j) {
+                    int byScore = Double.compare(scores[order[j]], scores[order[i]]);
+                    return byScore != 0 ? byScore : docnos[order[j]].compareTo(docnos[order[i]]);
+                }
+
+                @Override
+                protected void swap(int i, int j) {
+                    int swapped = order[i];
+                    order[i] = order[j];
+                    order[j] = swapped;
+                }
+            }.sort(0, order.length);
+            int[] relevance = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                relevance[i] = judgements.relevance(docnos[order[i]]);
+            }
+            mTopics.put(topic, evaluate(relevance, judgements));
+        }
+
+        /**
+         * Evaluates the hits of a topic straight from the search
+         *
+         * @param topic the id of the topic
+         * @param docnos the DOCNOs of the hits
+         * @param hits the hits
+         */
+        public void add(int topic, String[] docnos, ScoreDoc[] hits) {
+            double[] scores = new double[hits.length];
+            for (int i = 0; i < hits.length; i++) {
+                scores[i] = hits[i].score;
+            }
+            add(topic, docnos, scores);
+        }
+
+        /**
+         * @return the number of evaluated topics
+         */
+        public int topics() {
+            return mTopics.size();
+        }
+
+        /**
+         * @param measure the trec_eval name of a measure, e.g. "map" or "ndcg_cut_10"
+         * @return the value of the measure over all topics, the counts are summed and the other measures averaged
+         */
+        public double value(String measure) {
+            int index = Arrays.asList(mMeasures).indexOf(measure);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown measure " + measure);
+            }
+            double sum = 0;
+            for (double[] values : mTopics.values()) {
+                sum += values[index];
+            }
+            return isCount(index) || mTopics.isEmpty() ? sum : sum / mTopics.size();
+        }
+
+        /**
+         * @return the measures over all topics in the format of trec_eval
+         */
+        public String format() {
+            StringBuilder builder = new StringBuilder(String.format("%-22s\tall\t%d%n", "num_q", mTopics.size()));
+            for (int i = 0; i < mMeasures.length; i++) {
+                String value = isCount(i) ? String.valueOf((long) value(mMeasures[i]))
+                        : String.format("%.4f", value(mMeasures[i]));
+                builder.append(String.format("%-22s\tall\t%s%n", mMeasures[i], value));
+            }
+            return builder.toString();
+        }
+
+        /**
+         * @return the names of the measures
+         */
+        public String[] measures() {
+            return mMeasures.clone();
+        }
+
+        private boolean isCount(int measure) {
+            return measure < 3;
+        }
+    }
+
+    /**
+     * Computes the measures of a topic
+     *
+     * @param relevance the relevance levels of the retrieved documents in the order of the ranking, 0 if not judged
+     * @param judgements the judgements of the topic
+     * @return the values in the order of mMeasures
+     */
+    private double[] evaluate(int[] relevance, Judgements judgements) {
+        double[] values = new double[mMeasures.length];
+        int measure = 0;
+        values[measure++] = relevance.length;
+        values[measure++] = judgements.mRelevant;
+
+        int relevantRetrieved = 0;
+        double precisionSum = 0;
+        for (int i = 0; i < relevance.length; i++) {
+            if (relevance[i] > 0) {
+                relevantRetrieved++;
+                precisionSum += relevantRetrieved / (double) (i + 1);
+            }
+        }
+        values[measure++] = relevantRetrieved;
+        values[measure++] = judgements.mRelevant > 0 ? precisionSum / judgements.mRelevant : 0;
+
+        for (int cutoff : cPRECISION_CUTOFFS) {
+            values[measure++] = relevantAt(relevance, cutoff) / (double) cutoff;
+        }
+        for (int cutoff : mNdcgCutoffs) {
+            double idealDcg = dcg(judgements.mIdealGains, cutoff);
+            values[measure++] = idealDcg > 0 ? dcg(relevance, cutoff) / idealDcg : 0;
+        }
+        values[measure] = judgements.mRelevant > 0
+                ? relevantAt(relevance, cRECALL_CUTOFF) / (double) judgements.mRelevant : 0;
+        return values;
+    }
+
+    /**
+     * @return the number of relevant documents among the first cutoff documents of a ranking
+     */
+    private static int relevantAt(int[] relevance, int cutoff) {
+        int relevant = 0;
+        for (int i = 0; i < Math.min(cutoff, relevance.length); i++) {
+            if (relevance[i] > 0) {
+                relevant++;
+            }
+        }
+        return relevant;
+    }
+
+    /**
+     * @return the discounted cumulative gain of the first cutoff documents, the gain of a document is its relevance level
+     */
+    private static double dcg(int[] gains, int cutoff) {
+        double dcg = 0;
+        for (int i = 0; i < Math.min(cutoff, gains.length); i++) {
+            if (gains[i] > 0) {
+                dcg += gains[i] / (Math.log(i + 2) / Math.log(2));
+            }
+        }
+        return dcg;
+    }
+
+    /**
+     * The judgements of one topic. The judged DOCNOs and their relevance levels lie in an
+     * open-addressing table of two parallel arrays, so a lookup hashes the DOCNO once and
+     * mostly compares it with a single judged DOCNO.
+     */
+    private static class Judgements {
+        //<! The judged DOCNOs by slot, null for an empty slot
+        final String[] mDocnos;
+        //<! The relevance levels of the judged DOCNOs by slot
+        final int[] mRelevance;
+        //<! The positive relevance levels in descending order, the gains of the ideal ranking
+        final int[] mIdealGains;
+        //<! The number of relevant documents
+        final int mRelevant;
+
+        Judgements(List<String[]> lines) {
+            // at most half of the slots are used, so a probe ends soon
+            int slots = Integer.highestOneBit(Math.max(1, lines.size()) * 2) * 2;
+            mDocnos = new String[slots];
+            mRelevance = new int[slots];
+            int[] gains = new int[lines.size()];
+            int relevant = 0;
+            for (String[] line : lines) {
+                int slot = slot(line[2]);
+                if (mDocnos[slot] != null) {
+                    // a document judged twice keeps its first judgement
+                    continue;
+                }
+                mDocnos[slot] = line[2];
+                mRelevance[slot] = Integer.parseInt(line[3]);
+                if (mRelevance[slot] > 0) {
+                    gains[relevant++] = mRelevance[slot];
+                }
+            }
+            mRelevant = relevant;
+            Arrays.sort(gains, 0, relevant);
+            mIdealGains = new int[relevant];
+            for (int i = 0; i < relevant; i++) {
+                mIdealGains[i] = gains[relevant - 1 - i];
+            }
+        }
+
+        /**
+         * @return the relevance level of a document, 0 if it is not judged
+         */
+        int relevance(String docno) {
+            int slot = slot(docno);
+            return mDocnos[slot] != null ? mRelevance[slot] : 0;
+        }
+
+        /**
+         * @return the slot of a DOCNO, or the empty slot it would be stored in
+         */
+        private int slot(String docno) {
+            int mask = mDocnos.length - 1;
+            int slot = (docno.hashCode() * 0x9E3779B9) >>> 16 & mask;
+            while (mDocnos[slot] != null && !mDocnos[slot].equals(docno)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
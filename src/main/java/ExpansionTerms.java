@@ -0,0 +1,180 @@
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.InPlaceMergeSorter;
+
+import java.io.IOException;
+
+/**
+ * Collects the candidate terms of the query expansion together with their weights. Every
+ * term is stored once in a BytesRefHash and addressed by its ordinal, and the weights and
+ * document frequencies are kept in primitive arrays indexed by the ordinal, so adding a
+ * term that was seen before allocates nothing. The best terms are selected with a min-heap
+ * of ordinals that is bounded by the number of expansion terms. Terms with equal weights
+ * are ranked by their text, so ties never drop a term and the selection does not depend
+ * on the order the terms were added in. An instance is reused for the topics of a thread.
+ */
+public class ExpansionTerms {
+    //<! The candidate terms
+    private final BytesRefHash mTerms = new BytesRefHash();
+    //<! The weight of every term, by ordinal
+    private double[] mWeights = new double[1024];
+    //<! The document frequency of every term by ordinal, -1 if it was not looked up yet
+    private int[] mDocFreqs = new int[1024];
+    //<! Scratch references into the term storage for comparing two terms
+    private final BytesRef mTerm = new BytesRef();
+    private final BytesRef mOtherTerm = new BytesRef();
+
+    /**
+     * Forgets all terms, the storage is kept for the next topic
+     */
+    public void clear() {
+        mTerms.clear();
+        // clearing releases the term starts, which have to be set up again before the next add
+        mTerms.reinit();
+    }
+
+    /**
+     * @return the number of candidate terms
+     */
+    public int size() {
+        return mTerms.size();
+    }
+
+    /**
+     * Adds a term if it is not a candidate yet
+     *
+     * @param term the term, which is copied
+     * @return the ordinal of the term
+     */
+    public int add(BytesRef term) {
+        int ordinal = mTerms.add(term);
+        if (ordinal < 0) {
+            return -ordinal - 1;
+        }
+        // the arrays are only copied when they are full, they may grow to different lengths
+        mWeights = ArrayUtil.grow(mWeights, ordinal + 1);
+        mDocFreqs = ArrayUtil.grow(mDocFreqs, ordinal + 1);
+        mWeights[ordinal] = 0;
+        mDocFreqs[ordinal] = -1;
+        return ordinal;
+    }
+
+    /**
+     * Returns the document frequency of a term. It is read from the statistics only the
+     * first time the term occurs in the feedback documents of a topic.
+     *
+     * @param ordinal the ordinal of the term
+     * @param termStatistics the cached document frequencies of the index
+     * @return the number of documents that contain the term
+     * @throws IOException if the index could not be read
+     */
+    public int docFreq(int ordinal, TermStatisticsCache termStatistics) throws IOException {
+        if (mDocFreqs[ordinal] < 0) {
+            mDocFreqs[ordinal] = termStatistics.docFreq(mTerms.get(ordinal, mTerm).utf8ToString());
+        }
+        return mDocFreqs[ordinal];
+    }
+
+    /**
+     * @param ordinal the ordinal of a term
+     * @param weight the new weight of the term
+     */
+    public void setWeight(int ordinal, double weight) {
+        mWeights[ordinal] = weight;
+    }
+
+    /**
+     * Selects the terms with the highest weights. The weights are scaled so that the best
+     * term gets the given weight, and the terms are returned in alphabetical order.
+     *
+     * @param limit the maximum number of terms
+     * @param maxWeight the weight of the best term
+     * @return the selected terms together with their scaled weights
+     */
+    public ResultCache.Expansion top(int limit, float maxWeight) {
+        int[] heap = new int[Math.min(limit, mTerms.size())];
+        if (heap.length == 0) {
+            return new ResultCache.Expansion(new String[0], new float[0]);
+        }
+        int size = 0;
+        for (int ordinal = 0; ordinal < mTerms.size(); ordinal++) {
+            if (size < heap.length) {
+                heap[size] = ordinal;
+                siftUp(heap, size++);
+            } else if (isWorse(heap[0], ordinal)) {
+                // the root is the worst selected term
+                heap[0] = ordinal;
+                siftDown(heap, size);
+            }
+        }
+
+        new InPlaceMergeSorter() {
+            @Override
+            protected int compare(int i, int j) {
+                return mTerms.get(heap[i], mTerm).compareTo(mTerms.get(heap[j], mOtherTerm));
+            }
+
+            @Override
+            protected void swap(int i, int j) {
+                int ordinal = heap[i];
+                heap[i] = heap[j];
+                heap[j] = ordinal;
+            }
+        }.sort(0, heap.length);
+
+        double bestWeight = Double.NEGATIVE_INFINITY;
+        for (int ordinal : heap) {
+            bestWeight = Math.max(bestWeight, mWeights[ordinal]);
+        }
+        String[] terms = new String[heap.length];
+        float[] weights = new float[heap.length];
+        for (int i = 0; i < heap.length; i++) {
+            terms[i] = mTerms.get(heap[i], mTerm).utf8ToString();
+            weights[i] = (float) (maxWeight * (mWeights[heap[i]] / bestWeight));
+        }
+        return new ResultCache.Expansion(terms, weights);
+    }
+
+    /**
+     * @return whether the first term ranks below the second one: it has a lower weight, or
+     * the same weight and a text that sorts after the other one
+     */
+    private boolean isWorse(int ordinal, int otherOrdinal) {
+        int order = Double.compare(mWeights[ordinal], mWeights[otherOrdinal]);
+        if (order != 0) {
+            return order < 0;
+        }
+        return mTerms.get(ordinal, mTerm).compareTo(mTerms.get(otherOrdinal, mOtherTerm)) > 0;
+    }
+
+    private void siftUp(int[] heap, int index) {
+        int ordinal = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isWorse(ordinal, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = ordinal;
+    }
+
+    private void siftDown(int[] heap, int size) {
+        int ordinal = heap[0];
+        int index = 0;
+        int child;
+        while ((child = 2 * index + 1) < size) {
+            if (child + 1 < size && isWorse(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!isWorse(heap[child], ordinal)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = ordinal;
+    }
+}
@@ -1,5 +1,6 @@
 public enum FieldNames {
     DOCNO("docno"),
+    FILE("file"),
     HEADLINE("headline"),
     TEXT("text");
 
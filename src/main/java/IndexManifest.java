@@ -0,0 +1,170 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Records which collection files an index was built from. Every file is identified by
+ * its path and described by its size and checksum. The manifest is kept in the user
+ * data of the index commit, so it always matches the committed documents.
+ */
+public class IndexManifest {
+    //<! Prefix of the commit user data keys that hold manifest entries
+    private static final String cKEY_PREFIX = "manifest:";
+
+    //<! Maps the path of a file to its "size:checksum" description
+    private final Map<String, String> mEntries;
+
+    private IndexManifest(Map<String, String> entries) {
+        mEntries = entries;
+    }
+
+    /**
+     * Describes the given files by their size and checksum. The checksums are computed
+     * in parallel.
+     *
+     * @param files the collection files
+     * @return the manifest of the files
+     * @throws IOException if a file could not be read
+     */
+    public static IndexManifest fromFiles(List<File> files) throws IOException {
+        Map<String, String> entries = new ConcurrentHashMap<>();
+        try {
+            files.parallelStream().forEach(file -> entries.put(file.getPath(), describeUnchecked(file)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new IndexManifest(entries);
+    }
+
+    /**
+     * Reads the manifest from the user data of an index commit
+     *
+     * @param commitData the commit user data, e.g. from IndexWriter.getLiveCommitData()
+     * @return the manifest. It is empty if the commit has none
+     */
+    public static IndexManifest fromCommitData(Iterable<Map.Entry<String, String>> commitData) {
+        Map<String, String> entries = new HashMap<>();
+        if (commitData != null) {
+            for (Map.Entry<String, String> entry : commitData) {
+                if (entry.getKey().startsWith(cKEY_PREFIX)) {
+                    entries.put(entry.getKey().substring(cKEY_PREFIX.length()), entry.getValue());
+                }
+            }
+        }
+        return new IndexManifest(entries);
+    }
+
+    /**
+     * @return the manifest as commit user data entries
+     */
+    public Map<String, String> toCommitData() {
+        Map<String, String> commitData = new HashMap<>();
+        for (Map.Entry<String, String> entry : mEntries.entrySet()) {
+            commitData.put(cKEY_PREFIX + entry.getKey(), entry.getValue());
+        }
+        return commitData;
+    }
+
+    /**
+     * @param previous the manifest of the indexed files
+     * @return the paths of files that are new or whose size or checksum changed
+     */
+    public List<String> changedFiles(IndexManifest previous) {
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : mEntries.entrySet()) {
+            if (!entry.getValue().equals(previous.mEntries.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        Collections.sort(changed);
+        return changed;
+    }
+
+    /**
+     * @param previous the manifest of the indexed files
+     * @return the paths of indexed files that no longer exist
+     */
+    public List<String> removedFiles(IndexManifest previous) {
+        List<String> removed = new ArrayList<>();
+        for (String path : previous.mEntries.keySet()) {
+            if (!mEntries.containsKey(path)) {
+                removed.add(path);
+            }
+        }
+        Collections.sort(removed);
+        return removed;
+    }
+
+    /**
+     * Records the current size and checksum of a file that was indexed
+     *
+     * @param file the collection file
+     * @throws IOException if the file could not be read
+     */
+    public void put(File file) throws IOException {
+        mEntries.put(file.getPath(), describe(file));
+    }
+
+    /**
+     * Records the description of a file that was indexed
+     *
+     * @param path the path of the collection file
+     * @param description the "size:checksum" description from describe(File)
+     */
+    public void put(String path, String description) {
+        mEntries.put(path, description);
+    }
+
+    /**
+     * Forgets a file whose documents were removed from the index
+     *
+     * @param path the path of the collection file
+     */
+    public void remove(String path) {
+        mEntries.remove(path);
+    }
+
+    /**
+     * @return the paths of the files in the manifest
+     */
+    public Set<String> paths() {
+        return Collections.unmodifiableSet(mEntries.keySet());
+    }
+
+    public boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * @param file the collection file
+     * @return "size:checksum" of the file
+     * @throws IOException if the file could not be read
+     */
+    static String describe(File file) throws IOException {
+        try {
+            return describeUnchecked(file);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return "size:checksum" of a file
+     */
+    private static String describeUnchecked(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32C checksum = new CRC32C();
+            checksum.update(buffer);
+            return channel.size() + ":" + Long.toHexString(checksum.getValue());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Producer/consumer pipeline that indexes the collections with several threads.
+ * One thread discovers the collection files, a pool of parser threads splits them
+ * into lucene documents and a pool of writer threads adds those to the index.
+ * The stages are connected by bounded queues, so a fast stage blocks instead of
+ * piling up work in memory.
+ */
+public class IndexingPipeline {
+    //<! Marker that tells a parser thread that no more files will follow
+    private static final File cEND_OF_FILES = new File("");
+    //<! Marker that tells a writer thread that no more documents will follow
+    private static final Document cEND_OF_DOCUMENTS = new Document();
+    //<! Interval in which heap and index writer buffer usage are sampled
+    private static final long cMEMORY_SAMPLE_INTERVAL_MS = 200;
+
+    //<! The index writer shared by all writer threads
+    private final IndexWriter mIndexWriter;
+    //<! Number of threads that split files into documents
+    private final int mParserThreads;
+    //<! Number of threads that add documents to the index
+    private final int mWriterThreads;
+    //<! Whether documents replace indexed documents with the same DOCNO instead of being added
+    private final boolean mUpdateByDocno;
+    //<! Files waiting to be parsed
+    private final BlockingQueue<File> mFileQueue;
+    //<! Parsed documents waiting to be added to the index
+    private final BlockingQueue<Document> mDocumentQueue;
+    //<! Number of files that were parsed
+    private final AtomicLong mFileCount = new AtomicLong();
+    //<! Number of documents that were added to the index
+    private final AtomicLong mDocumentCount = new AtomicLong();
+    //<! Highest heap usage that was observed while indexing
+    private final AtomicLong mPeakHeapBytes = new AtomicLong();
+    //<! Highest amount of RAM that was held by the index writer's buffers
+    private final AtomicLong mPeakBufferBytes = new AtomicLong();
+    //<! The collection every queued file belongs to, by which the indexing metrics are broken down
+    private final Map<File, String> mCollections = new ConcurrentHashMap<>();
+    //<! The documents of every file in progress that are not added yet, plus one while the file is still parsed
+    private final Map<String, AtomicInteger> mPendingDocuments = new ConcurrentHashMap<>();
+    //<! Is told about every file whose documents were all added to the index, null if nobody listens
+    private volatile FileListener mFileListener;
+
+    IndexingPipeline(IndexWriter indexWriter, int parserThreads, int writerThreads, int queueCapacity,
+                     boolean updateByDocno) {
+        mIndexWriter = indexWriter;
+        mParserThreads = parserThreads;
+        mWriterThreads = writerThreads;
+        mUpdateByDocno = updateByDocno;
+        mFileQueue = new ArrayBlockingQueue<>(queueCapacity);
+        mDocumentQueue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * @param fileListener is told about every file whose documents were all handed to the index writer
+     */
+    public void setFileListener(FileListener fileListener) {
+        mFileListener = fileListener;
+    }
+
+    /**
+     * Indexes the given files and waits until every document was handed to the index writer
+     *
+     * @param files the collection files that should be indexed
+     * @param locations the directories of the collections, which the files are attributed to
+     * @return true if all documents were indexed. Otherwise, false
+     * @throws IOException if a file could not be read or a document could not be indexed
+     */
+    public boolean run(List<File> files, String[] locations) throws IOException {
+        return run(() -> {
+            for (File file : files) {
+                mCollections.put(file, collectionOf(file, locations));
+                mFileQueue.put(file);
+            }
+        });
+    }
+
+    /**
+     * Runs the pipeline with the given discovery stage
+     */
+    private boolean run(FileDiscovery discovery) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(1 + mParserThreads + mWriterThreads);
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+        AtomicInteger runningParsers = new AtomicInteger(mParserThreads);
+        ScheduledExecutorService memorySampler = Executors.newSingleThreadScheduledExecutor();
+        memorySampler.scheduleAtFixedRate(this::sampleMemory, 0, cMEMORY_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+
+        completionService.submit(() -> discoverFiles(discovery));
+        for (int i = 0; i < mParserThreads; i++) {
+            completionService.submit(() -> parseFiles(runningParsers));
+        }
+        for (int i = 0; i < mWriterThreads; i++) {
+            completionService.submit(this::writeDocuments);
+        }
+
+        try {
+            for (int i = 0; i < 1 + mParserThreads + mWriterThreads; i++) {
+                completionService.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            memorySampler.shutdownNow();
+        }
+
+        sampleMemory();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Indexed %d documents from %d files in %.1f s (%.0f docs/sec)%n",
+                mDocumentCount.get(), mFileCount.get(), seconds, mDocumentCount.get() / seconds);
+        System.out.printf("Peak heap usage: %d MB, peak index writer buffer: %d MB%n",
+                mPeakHeapBytes.get() >> 20, mPeakBufferBytes.get() >> 20);
+        reportMetrics(seconds);
+        return true;
+    }
+
+    /**
+     * Records the throughput of the run and of every collection, and prints where the
+     * indexing time went. The throughput of a collection is measured over the time the
+     * parser threads spent on its files.
+     */
+    private void reportMetrics(double seconds) {
+        Metrics.gauge("indexing.seconds", seconds);
+        Metrics.gauge("indexing.documentsPerSecond", mDocumentCount.get() / seconds);
+        Metrics.gauge("indexing.peakHeapMB", mPeakHeapBytes.get() >> 20);
+        Metrics.gauge("indexing.peakBufferMB", mPeakBufferBytes.get() >> 20);
+        Set<String> collections = new TreeSet<>(mCollections.values());
+        for (String collection : collections) {
+            String prefix = "indexing." + collection + ".";
+            double parseSeconds = Math.max(1, Metrics.counter(prefix + "parseNanos").sum()) / 1e9;
+            long files = Metrics.counter(prefix + "files").sum();
+            long documents = Metrics.counter(prefix + "documents").sum();
+            long bytes = Metrics.counter(prefix + "bytes").sum();
+            Metrics.gauge(prefix + "filesPerSecond", files / parseSeconds);
+            Metrics.gauge(prefix + "documentsPerSecond", documents / parseSeconds);
+            Metrics.gauge(prefix + "bytesPerSecond", bytes / parseSeconds);
+            System.out.printf("%s: %d files, %d documents, %d MB parsed in %.1f s (%.0f docs/sec, %.1f MB/sec)%n",
+                    collection, files, documents, bytes >> 20, parseSeconds, documents / parseSeconds,
+                    bytes / parseSeconds / (1 << 20));
+        }
+        System.out.printf("Time spent over all threads: parsing %.1f s, analysis %.1f s (estimated), adding documents %.1f s%n",
+                Metrics.histogram("indexing.parseFile").totalNanos() / 1e9,
+                Metrics.counter("indexing.analysisNanos").sum() / 1e9,
+                Metrics.histogram("indexing.addDocument").totalNanos() / 1e9);
+        Metrics.printHistogram("indexing.parseFile");
+        Metrics.printHistogram("indexing.addDocument");
+    }
+
+    /**
+     * @return the name of the location directory a file was found in, "other" if it is in none of them
+     */
+    private static String collectionOf(File file, String[] locations) {
+        for (String location : locations) {
+            if (file.toPath().normalize().startsWith(new File(location).toPath().normalize())) {
+                return new File(location).getName();
+            }
+        }
+        return "other";
+    }
+
+    /**
+     * Records the current heap usage and the RAM held by the index writer if they
+     * exceed the high-water marks seen so far
+     */
+    private void sampleMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        mPeakHeapBytes.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max);
+        mPeakBufferBytes.accumulateAndGet(mIndexWriter.ramBytesUsed(), Math::max);
+    }
+
+    /**
+     * Queues the files of the discovery stage and tells the parser threads when all
+     * files were queued
+     */
+    private Void discoverFiles(FileDiscovery discovery) throws InterruptedException {
+        try {
+            discovery.queueFiles();
+        } finally {
+            for (int i = 0; i < mParserThreads; i++) {
+                mFileQueue.put(cEND_OF_FILES);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits queued files into documents. The last parser thread to finish tells the
+     * writer threads that no more documents will follow.
+     */
+    private Void parseFiles(AtomicInteger runningParsers) throws IOException, InterruptedException {
+        try {
+            File file;
+            while ((file = mFileQueue.take()) != cEND_OF_FILES) {
+                System.out.println(file.getName());
+                parseFile(file);
+                mFileCount.incrementAndGet();
+            }
+        } finally {
+            if (runningParsers.decrementAndGet() == 0) {
+                for (int i = 0; i < mWriterThreads; i++) {
+                    mDocumentQueue.put(cEND_OF_DOCUMENTS);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits a file into documents and queues them. The time spent waiting for room in
+     * the document queue is not counted as parse time.
+     */
+    private void parseFile(File file) throws IOException, InterruptedException {
+        long[] waitNanos = {0};
+        long[] documents = {0};
+        long start = System.nanoTime();
+        // the file holds one pending document itself until it is parsed, so it does not complete early
+        AtomicInteger pendingDocuments = new AtomicInteger(1);
+        mPendingDocuments.put(file.getPath(), pendingDocuments);
+        Parser.parseFile(file, document -> {
+            long putStart = System.nanoTime();
+            pendingDocuments.incrementAndGet();
+            mDocumentQueue.put(document);
+            waitNanos[0] += System.nanoTime() - putStart;
+            documents[0]++;
+        });
+        long parseNanos = System.nanoTime() - start - waitNanos[0];
+        documentAdded(file.getPath());
+
+        String prefix = "indexing." + mCollections.getOrDefault(file, "other") + ".";
+        Metrics.counter(prefix + "files").increment();
+        Metrics.counter(prefix + "documents").add(documents[0]);
+        Metrics.counter(prefix + "bytes").add(file.length());
+        Metrics.counter(prefix + "parseNanos").add(parseNanos);
+        Metrics.histogram("indexing.parseFile").record(parseNanos);
+    }
+
+    /**
+     * Adds queued documents to the index
+     */
+    private Void writeDocuments() throws IOException, InterruptedException {
+        LatencyHistogram addDocumentLatency = Metrics.histogram("indexing.addDocument");
+        Document document;
+        while ((document = mDocumentQueue.take()) != cEND_OF_DOCUMENTS) {
+            long start = System.nanoTime();
+            if (mUpdateByDocno) {
+                mIndexWriter.updateDocument(new Term(FieldNames.DOCNO.getName(), document.get(FieldNames.DOCNO.getName())),
+                        document);
+            } else {
+                mIndexWriter.addDocument(document);
+            }
+            addDocumentLatency.record(System.nanoTime() - start);
+            mDocumentCount.incrementAndGet();
+            documentAdded(document.get(FieldNames.FILE.getName()));
+        }
+        return null;
+    }
+
+    /**
+     * Counts down the pending documents of a file and tells the file listener when the
+     * last one was added
+     */
+    private void documentAdded(String path) throws IOException {
+        AtomicInteger pendingDocuments = mPendingDocuments.get(path);
+        if (pendingDocuments != null && pendingDocuments.decrementAndGet() == 0) {
+            mPendingDocuments.remove(path);
+            FileListener fileListener = mFileListener;
+            if (fileListener != null) {
+                fileListener.fileIndexed(new File(path));
+            }
+        }
+    }
+
+    /**
+     * Is told about the files whose documents were all handed to the index writer
+     */
+    public interface FileListener {
+        void fileIndexed(File file) throws IOException;
+    }
+
+    /**
+     * Puts the files that should be indexed into the file queue
+     */
+    private interface FileDiscovery {
+        void queueFiles() throws InterruptedException;
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe histogram of latencies in nanoseconds. Latencies are counted in buckets
+ * whose width grows with the latency, so the histogram needs a fixed amount of memory
+ * and percentiles are accurate to about 6%. Recording does not take a lock.
+ */
+public class LatencyHistogram {
+    //<! Number of bits of a latency that select the bucket within a power of two
+    private static final int cSUB_BUCKET_BITS = 4;
+    //<! Number of buckets within a power of two
+    private static final int cSUB_BUCKETS = 1 << cSUB_BUCKET_BITS;
+
+    //<! Number of latencies per bucket
+    private final AtomicLongArray mBuckets = new AtomicLongArray((64 - cSUB_BUCKET_BITS + 1) * cSUB_BUCKETS);
+    //<! Sum of all latencies
+    private final LongAdder mTotalNanos = new LongAdder();
+
+    /**
+     * Records a latency
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        mBuckets.incrementAndGet(bucket(Math.max(0, nanos)));
+        mTotalNanos.add(Math.max(0, nanos));
+    }
+
+    /**
+     * @return the number of recorded latencies
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < mBuckets.length(); i++) {
+            count += mBuckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return the sum of all recorded latencies in nanoseconds
+     */
+    public long totalNanos() {
+        return mTotalNanos.sum();
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100
+     * @return the latency in nanoseconds that the given percentage of the recorded
+     *         latencies do not exceed, 0 if nothing was recorded
+     */
+    public long percentileNanos(double percentile) {
+        long[] counts = new long[mBuckets.length()];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mBuckets.get(i);
+            count += counts[i];
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank)) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Buckets 0 to cSUB_BUCKETS - 1 hold one latency each. Above that, every power of
+     * two is split into cSUB_BUCKETS buckets of equal width.
+     */
+    private static int bucket(long nanos) {
+        if (nanos < cSUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - cSUB_BUCKET_BITS)) & (cSUB_BUCKETS - 1);
+        return (exponent - cSUB_BUCKET_BITS + 1) * cSUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest latency that falls into a bucket
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < cSUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / cSUB_BUCKETS + cSUB_BUCKET_BITS - 1;
+        long subBucket = bucket % cSUB_BUCKETS;
+        long width = 1L << (exponent - cSUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
@@ -0,0 +1,172 @@
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+
+/**
+ * Shows how indexing and querying scale with the size of the collection. For every
+ * size a synthetic collection is generated, indexed and queried with its topics. The
+ * indexing throughput, the index size and the query latencies of all sizes are printed
+ * as a table and written to loadtest.csv in the working directory of the test. Every
+ * collection gets a high frequency stop word list of its own, which is kept in its
+ * directory. A stop word list of the working directory of the process is put back
+ * when the test ends.
+ */
+public class LoadTest {
+    //<! Number of generated topics
+    private static final int cTOPICS = Integer.getInteger("loadtest.topics", 50);
+    //<! The location where the file with the high freq words is stored, as in StopListBuilder
+    private static final File cFREQ_LIST = new File("./freqlist.txt");
+
+    /**
+     * @param args analyzer, similarity, the working directory and the collection sizes
+     *             in documents, e.g. "custom bm25 /tmp/load 50000 250000 1000000"
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: LoadTest <analyzer> <similarity> <directory> <documents>...");
+            System.exit(1);
+        }
+        File workDirectory = new File(args[2]);
+        workDirectory.mkdirs();
+        // the stop word list of the process is set aside, so no collection is indexed with it
+        File savedFreqList = new File(workDirectory, "freqlist.txt.saved");
+        if (cFREQ_LIST.exists()) {
+            Files.move(cFREQ_LIST.toPath(), savedFreqList.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        try {
+            measure(args, workDirectory);
+        } finally {
+            Files.deleteIfExists(cFREQ_LIST.toPath());
+            if (savedFreqList.exists()) {
+                Files.move(savedFreqList.toPath(), cFREQ_LIST.toPath());
+            }
+            AnalyzerRegistry.reload();
+        }
+    }
+
+    /**
+     * Measures all collection sizes and writes the table and loadtest.csv
+     */
+    private static void measure(String[] args, File workDirectory) throws Exception {
+        StringBuilder table = new StringBuilder(String.format("%10s %10s %12s %10s %10s %10s %10s %12s%n",
+                "documents", "index s", "docs/sec", "index MB", "p50 ms", "p95 ms", "p99 ms", "topics/sec"));
+        try (PrintWriter csv = new PrintWriter(new File(workDirectory.getPath(), "loadtest.csv"), StandardCharsets.UTF_8)) {
+            csv.println("documents,indexSeconds,documentsPerSecond,indexBytes,p50Ms,p95Ms,p99Ms,topicsPerSecond");
+            for (int i = 3; i < args.length; i++) {
+                int documents = Integer.parseInt(args[i]);
+                Result result = run(args[0], args[1], new File(workDirectory, String.valueOf(documents)), documents);
+                table.append(String.format("%10d %10.1f %12.0f %10d %10.2f %10.2f %10.2f %12.1f%n", documents,
+                        result.mIndexSeconds, documents / result.mIndexSeconds, result.mIndexBytes >> 20,
+                        result.mLatencies.percentileNanos(50) / 1e6, result.mLatencies.percentileNanos(95) / 1e6,
+                        result.mLatencies.percentileNanos(99) / 1e6, result.mTopicsPerSecond));
+                csv.printf(Locale.ROOT, "%d,%.3f,%.1f,%d,%.3f,%.3f,%.3f,%.2f%n", documents, result.mIndexSeconds,
+                        documents / result.mIndexSeconds, result.mIndexBytes,
+                        result.mLatencies.percentileNanos(50) / 1e6, result.mLatencies.percentileNanos(95) / 1e6,
+                        result.mLatencies.percentileNanos(99) / 1e6, result.mTopicsPerSecond);
+                csv.flush();
+            }
+        }
+        System.out.print(table);
+    }
+
+    /**
+     * Generates, indexes and queries a collection of the given size
+     */
+    private static Result run(String analyzer, String similarity, File directory, int documents) throws Exception {
+        System.out.println("Generating " + documents + " documents in " + directory);
+        new CorpusGenerator(cTOPICS).generate(directory, documents);
+        String collections = directory + "/resources/newsarticles/Assignment Two/";
+        String indexLocation = new File(directory, "index").getPath();
+        Parser parser = new Parser(analyzer, similarity);
+        // the stop word list of the previous size must not be used for this collection
+        Files.deleteIfExists(cFREQ_LIST.toPath());
+        AnalyzerRegistry.reload();
+
+        long start = System.nanoTime();
+        if (!parser.createIndex(collections + "ft", collections + "fr94", collections + "fbis",
+                collections + "latimes", indexLocation)) {
+            throw new IOException("Could not create the index of " + documents + " documents");
+        }
+        Result result = new Result();
+        result.mIndexSeconds = (System.nanoTime() - start) / 1e9;
+        result.mIndexBytes = size(indexLocation);
+        if (cFREQ_LIST.exists()) {
+            Files.copy(cFREQ_LIST.toPath(), new File(directory, "freqlist.txt").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Map<Integer, String[]> topics = parser.createQueries(directory + "/resources/topics/topics");
+        try (IndexReader reader = ShardedIndex.open(indexLocation)) {
+            query(analyzer, similarity, reader, topics, result);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the topics one at a time and then all at once. Every phase gets a query
+     * index with an empty result cache of its own, so no topic is answered from the cache
+     * of the process or of the other phase.
+     *
+     * @param result receives the latencies, the throughput and the cache hits of the batch
+     */
+    static void query(String analyzer, String similarity, IndexReader reader, Map<Integer, String[]> topics,
+                      Result result) throws Exception {
+        QueryIndex queryIndex = new QueryIndex(analyzer, similarity);
+        queryIndex.setResultCache(new ResultCache());
+        ExecutorService searchExecutor = queryIndex.createSearchExecutor();
+        try {
+            IndexSearcher searcher = queryIndex.createSearcher(reader, searchExecutor);
+            // one topic at a time, so the latencies are not inflated by other topics
+            for (String[] topic : topics.values()) {
+                long topicStart = System.nanoTime();
+                queryIndex.searchTopic(topic, searcher);
+                result.mLatencies.record(System.nanoTime() - topicStart);
+            }
+            // all topics at once, as a run evaluates them
+            QueryIndex concurrentQueryIndex = new QueryIndex(analyzer, similarity);
+            ResultCache batchCache = new ResultCache();
+            concurrentQueryIndex.setResultCache(batchCache);
+            long batchStart = System.nanoTime();
+            concurrentQueryIndex.searchTopics(topics,
+                    concurrentQueryIndex.createSearcher(reader, searchExecutor),
+                    new PrintWriter(Writer.nullWriter()));
+            result.mTopicsPerSecond = topics.size() / ((System.nanoTime() - batchStart) / 1e9);
+            result.mBatchCacheHits = batchCache.hits();
+        } finally {
+            searchExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the size of all files of a directory in bytes
+     */
+    private static long size(String location) throws IOException {
+        try (Stream<Path> files = Files.walk(new File(location).toPath())) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    /**
+     * The measurements of one collection size
+     */
+    static class Result {
+        double mIndexSeconds;
+        long mIndexBytes;
+        final LatencyHistogram mLatencies = new LatencyHistogram();
+        double mTopicsPerSecond;
+        //<! Lookups of the batch phase that were answered from its result cache, 0 unless topics repeat
+        long mBatchCacheHits;
+    }
+}
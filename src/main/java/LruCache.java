@@ -0,0 +1,155 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Thread-safe map with a maximum size that evicts the least recently used entry when
+ * it is full. Entries can optionally expire a fixed time after they were cached.
+ * Lookups are counted, so the effectiveness of the cache can be reported. The keys are
+ * spread over segments by their hash, and every segment is an access-ordered map with
+ * a lock and a share of the maximum size of its own. Threads that look up different
+ * keys mostly do not wait for each other, and the entry that is evicted is the least
+ * recently used one of its segment.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the cached values
+ */
+public class LruCache<K, V> {
+    //<! The maximum number of segments, enough that the threads of a search rarely share a lock
+    private static final int cMAX_SEGMENTS = Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors());
+    //<! The minimum number of entries of a segment, so the eviction of a small cache stays close to exact LRU
+    private static final int cMIN_SEGMENT_SIZE = 16;
+
+    //<! The cached entries in access order, by segment
+    private final LinkedHashMap<K, TimedValue<V>>[] mSegments;
+    //<! Time in milliseconds after which an entry expires, 0 if entries never expire
+    private final long mTimeToLiveMillis;
+    //<! Number of lookups that found a cached value
+    private final LongAdder mHits = new LongAdder();
+    //<! Number of lookups that had to load the value
+    private final LongAdder mMisses = new LongAdder();
+
+    LruCache(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    LruCache(int maxSize, long timeToLiveMillis) {
+        mTimeToLiveMillis = timeToLiveMillis;
+        // a small cache has few segments, one below 2 * cMIN_SEGMENT_SIZE entries
+        int segments = Integer.highestOneBit(Math.max(1, Math.min(maxSize / cMIN_SEGMENT_SIZE, cMAX_SEGMENTS)));
+        mSegments = new LinkedHashMap[segments];
+        for (int i = 0; i < segments; i++) {
+            // the segments share the maximum size exactly, the first ones hold one entry more
+            int segmentSize = maxSize / segments + (i < maxSize % segments ? 1 : 0);
+            mSegments[i] = new LinkedHashMap<>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, TimedValue<V>> eldest) {
+                    return size() > segmentSize;
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns the cached value of a key or loads and caches it. The value is loaded
+     * without holding the lock of its segment, so concurrent misses on the same key may
+     * load it twice.
+     *
+     * @param key the key to look up
+     * @param loader computes the value if it is not cached
+     * @return the value of the key
+     */
+    public V get(K key, Function<K, V> loader) {
+        LinkedHashMap<K, TimedValue<V>> segment = segment(key);
+        TimedValue<V> entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && isExpired(entry)) {
+                segment.remove(key);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            mHits.increment();
+            return entry.mValue;
+        }
+        mMisses.increment();
+        V value = loader.apply(key);
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Caches a value
+     *
+     * @param key the key of the value
+     * @param value the value to be cached
+     */
+    public void put(K key, V value) {
+        LinkedHashMap<K, TimedValue<V>> segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, new TimedValue<>(value, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * @return a copy of all entries that have not expired
+     */
+    public Map<K, V> entries() {
+        Map<K, V> entries = new HashMap<>();
+        for (LinkedHashMap<K, TimedValue<V>> segment : mSegments) {
+            synchronized (segment) {
+                for (Map.Entry<K, TimedValue<V>> entry : segment.entrySet()) {
+                    if (!isExpired(entry.getValue())) {
+                        entries.put(entry.getKey(), entry.getValue().mValue);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the segment of a key, chosen by the high and low bits of its hash
+     */
+    private LinkedHashMap<K, TimedValue<V>> segment(K key) {
+        int hash = key.hashCode();
+        return mSegments[(hash ^ (hash >>> 16)) & (mSegments.length - 1)];
+    }
+
+    private boolean isExpired(TimedValue<V> entry) {
+        return mTimeToLiveMillis > 0 && System.currentTimeMillis() - entry.mCreated > mTimeToLiveMillis;
+    }
+
+    public long hits() {
+        return mHits.sum();
+    }
+
+    public long misses() {
+        return mMisses.sum();
+    }
+
+    /**
+     * @return the share of lookups that found a cached value
+     */
+    public double hitRatio() {
+        long lookups = hits() + misses();
+        return lookups == 0 ? 0 : (double) hits() / lookups;
+    }
+
+    /**
+     * A cached value together with the time it was cached at
+     */
+    private static class TimedValue<V> {
+        final V mValue;
+        final long mCreated;
+
+        TimedValue(V value, long created) {
+            mValue = value;
+            mCreated = created;
+        }
+    }
+}
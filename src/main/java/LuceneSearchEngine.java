@@ -21,15 +21,27 @@ public class LuceneSearchEngine {
     //!<the location where the topics file is stored
     private static final String cTOPICS_LOCATION = "./resources/topics/topics";
 
+    //!<mode that reuses an existing index as-is
+    private static final String cMODE_DEFAULT = "default";
+    //!<mode that brings an existing index up to date with the dataset before querying
+    private static final String cMODE_INCREMENTAL = "incremental";
+    //!<mode that serves queries over HTTP instead of writing the rankings of the topics
+    private static final String cMODE_SERVE = "serve";
+    //!<mode that evaluates the topics with every configuration of a parameter grid
+    private static final String cMODE_SWEEP = "sweep";
+    //!<mode that serves queries over HTTP while new collection files are streamed into the index
+    private static final String cMODE_INGEST = "ingest";
+
     public static void main(String[] args)
     {
-        if(args.length != 2) {
-            System.out.println("Wrong number of arguments passed. Expected 2. Actual: " + args.length);
+        if(args.length != 2 && args.length != 3) {
+            System.out.println("Wrong number of arguments passed. Expected 2 or 3. Actual: " + args.length);
             System.exit(1);
         }
         try {
             Parser parser = new Parser(args[0] /*the selected analyzer*/,
                     args[1] /*the selected similarity*/);
+            String mode = args.length == 3 ? args[2] : cMODE_DEFAULT;
             // to save time, create a new index only if none exists yet
             if(!Files.exists(Paths.get(cINDEX_DIRECTORY_LOCATION))){
                 System.out.println("Creating new index");
@@ -43,6 +55,20 @@ public class LuceneSearchEngine {
                     System.exit(1);
                 }
             }
+            else if(mode.equalsIgnoreCase(cMODE_INCREMENTAL)
+                    || BuildCheckpoint.isIncomplete(Paths.get(cINDEX_DIRECTORY_LOCATION))) {
+                // an update resumes a build that did not finish, a partial index is never searched as it is
+                System.out.println("Updating existing index");
+                if(!parser.updateIndex(cFINANCIAL_TIMES_LIMITED_LOCATION,
+                        cFEDERAL_REGISTER_LOCATION,
+                        cFOREIGN_BROADCAST_INFORMATION_SERVICE_LOCATION,
+                        cLOS_ANGELES_LOCATION,
+                        cINDEX_DIRECTORY_LOCATION))
+                {
+                    System.out.println("Error. Could not update index");
+                    System.exit(1);
+                }
+            }
             else {
                 System.out.println("Using existing index");
             }
@@ -50,7 +76,44 @@ public class LuceneSearchEngine {
             HashMap<Integer,String[]> queries  = parser.createQueries(cTOPICS_LOCATION);
             QueryIndex queryIndex = new QueryIndex(args[0] /*the selected analyzer*/,
                              args[1] /*the selected similarity*/);
+            if(mode.equalsIgnoreCase(cMODE_SERVE)) {
+                // the server keeps running until the process is stopped
+                SearchServer server = new SearchServer(parser, queryIndex, cINDEX_DIRECTORY_LOCATION);
+                server.start(queries);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        server.stop();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }));
+                return;
+            }
+            if(mode.equalsIgnoreCase(cMODE_INGEST)) {
+                // the server searches the readers of the ingester's writer, which it refreshes in the background
+                NrtIngester ingester = new NrtIngester(parser, new String[]{cFINANCIAL_TIMES_LIMITED_LOCATION,
+                        cFOREIGN_BROADCAST_INFORMATION_SERVICE_LOCATION, cLOS_ANGELES_LOCATION,
+                        cFEDERAL_REGISTER_LOCATION}, cINDEX_DIRECTORY_LOCATION);
+                SearchServer server = new SearchServer(parser, queryIndex, ingester::openSearcherManager);
+                server.start(queries);
+                ingester.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        ingester.stop();
+                        server.stop();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }));
+                return;
+            }
+            if(mode.equalsIgnoreCase(cMODE_SWEEP)) {
+                new ParameterSweep(args[0] /*the selected analyzer*/).run(queries, cINDEX_DIRECTORY_LOCATION);
+                Metrics.dump();
+                return;
+            }
             queryIndex.queryMap(queries, cINDEX_DIRECTORY_LOCATION);
+            Metrics.dump();
         } catch (IOException | ParseException e) {
             e.printStackTrace();
             System.exit(1);
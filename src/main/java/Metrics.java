@@ -0,0 +1,187 @@
+import javax.management.*;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of the counters and latency histograms of indexing and querying. The stages
+ * of the engine look up their metrics by name. At the end of a run all metrics are
+ * written to a JSON file, and while the engine runs they can be read over JMX.
+ */
+public class Metrics {
+    //<! The file the metrics are written to at the end of a run. Nothing is written if it is empty
+    private static final String cMETRICS_FILE = System.getProperty("metrics.file", "./metrics.json");
+    //<! Whether the metrics are exposed as an MBean while the engine runs
+    private static final boolean cJMX = Boolean.getBoolean("metrics.jmx");
+    //<! Name of the MBean that exposes the metrics
+    private static final String cMBEAN_NAME = "NewsArticleSearchEngine:type=Metrics";
+    //<! Percentiles that are reported for every histogram
+    private static final double[] cPERCENTILES = {50, 95, 99};
+
+    //<! Counters by name
+    private static final Map<String, LongAdder> sCounters = new ConcurrentHashMap<>();
+    //<! Histograms by name
+    private static final Map<String, LatencyHistogram> sHistograms = new ConcurrentHashMap<>();
+    //<! Values that are measured once, like throughputs, by name
+    private static final Map<String, Double> sGauges = new ConcurrentHashMap<>();
+
+    static {
+        if (cJMX) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(cMBEAN_NAME));
+            } catch (JMException e) {
+                System.out.println("WARNING! Could not register the metrics MBean: " + e);
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * @param name the name of the counter, e.g. "indexing.ft.documents"
+     * @return the counter, which is created on first use
+     */
+    public static LongAdder counter(String name) {
+        return sCounters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * @param name the name of the histogram, e.g. "query.firstPass"
+     * @return the histogram, which is created on first use
+     */
+    public static LatencyHistogram histogram(String name) {
+        return sHistograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Sets a value that is measured once
+     *
+     * @param name the name of the value, e.g. "indexing.documentsPerSecond"
+     * @param value the measured value
+     */
+    public static void gauge(String name, double value) {
+        sGauges.put(name, value);
+    }
+
+    /**
+     * @return the current values of all metrics by name. A histogram is described by its
+     *         count, mean, percentiles and total time in milliseconds.
+     */
+    public static SortedMap<String, Number> snapshot() {
+        SortedMap<String, Number> snapshot = new TreeMap<>();
+        sCounters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        sGauges.forEach(snapshot::put);
+        sHistograms.forEach((name, histogram) -> {
+            long count = histogram.count();
+            snapshot.put(name + ".count", count);
+            snapshot.put(name + ".totalMs", histogram.totalNanos() / 1e6);
+            snapshot.put(name + ".meanMs", count == 0 ? 0 : histogram.totalNanos() / 1e6 / count);
+            for (double percentile : cPERCENTILES) {
+                snapshot.put(name + ".p" + (int) percentile + "Ms", histogram.percentileNanos(percentile) / 1e6);
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * Drops the histograms whose name starts with a prefix, e.g. to discard the samples of a warm-up
+     *
+     * @param prefix the prefix of the histogram names
+     */
+    public static void clearHistograms(String prefix) {
+        sHistograms.keySet().removeIf(name -> name.startsWith(prefix));
+    }
+
+    /**
+     * Prints the percentiles of a histogram
+     */
+    public static void printHistogram(String name) {
+        LatencyHistogram histogram = histogram(name);
+        System.out.printf("%s: %d samples, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms%n", name, histogram.count(),
+                histogram.percentileNanos(50) / 1e6, histogram.percentileNanos(95) / 1e6,
+                histogram.percentileNanos(99) / 1e6);
+    }
+
+    /**
+     * Writes all metrics as a flat JSON object to the metrics file, if one is configured
+     *
+     * @throws IOException if the file could not be written
+     */
+    public static void dump() throws IOException {
+        if (cMETRICS_FILE.isEmpty()) {
+            return;
+        }
+        try (PrintWriter writer = new PrintWriter(cMETRICS_FILE, StandardCharsets.UTF_8)) {
+            SortedMap<String, Number> snapshot = snapshot();
+            int remaining = snapshot.size();
+            writer.println("{");
+            for (Map.Entry<String, Number> metric : snapshot.entrySet()) {
+                writer.printf(Locale.ROOT, "  \"%s\": %s%s%n", metric.getKey().replace("\\", "\\\\").replace("\"", "\\\""),
+                        metric.getValue() instanceof Double ? String.format(Locale.ROOT, "%.3f", metric.getValue())
+                                : metric.getValue(),
+                        --remaining > 0 ? "," : "");
+            }
+            writer.println("}");
+        }
+        System.out.println("Wrote metrics to " + cMETRICS_FILE);
+    }
+
+    /**
+     * Exposes every metric of the snapshot as a read-only attribute
+     */
+    private static class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value.doubleValue();
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            SortedMap<String, Number> snapshot = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (snapshot.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, snapshot.get(attribute).doubleValue()));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("The metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new UnsupportedOperationException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            // new metrics are created while the engine runs, so the attributes are listed anew every time
+            MBeanAttributeInfo[] attributes = snapshot().keySet().stream()
+                    .map(name -> new MBeanAttributeInfo(name, "double", name, true, false, false))
+                    .toArray(MBeanAttributeInfo[]::new);
+            return new MBeanInfo(Metrics.class.getName(), "Counters and latency histograms of the search engine",
+                    attributes, null, null, null);
+        }
+    }
+}
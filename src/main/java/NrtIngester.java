@@ -0,0 +1,342 @@
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Streams collection files into the index while it is searched. A watch service reports
+ * new, changed and deleted files in the collection directories. Once a file stopped
+ * changing, its documents replace the ones it contributed before, through one index
+ * writer that stays open for the lifetime of the ingester. Searchers are opened from
+ * that writer (near-real-time), and a reopen thread refreshes them in the background,
+ * so new documents become searchable without a commit. Files that changed while no
+ * ingester ran are picked up on start, by comparing them with the file manifest of the
+ * last commit. The manifest is committed when the ingester stops.
+ */
+public class NrtIngester {
+    //<! Time in ms a file has to stay unchanged before it is indexed, so files that are still written are not indexed half
+    private static final long cSETTLE_MS = Long.getLong("ingest.settleMs", 500);
+    //<! Time in ms after which added documents are searchable at the latest
+    private static final long cMAX_STALE_MS = Long.getLong("ingest.maxStaleMs", 1000);
+    //<! Time in ms between reopens while ingested documents wait to become searchable
+    private static final long cMIN_STALE_MS = Long.getLong("ingest.minStaleMs", 50);
+
+    //<! The collection directories that are watched
+    private final String[] mLocations;
+    //<! The directory of the index
+    private final Directory mDirectory;
+    //<! Adds the documents of the ingested files, it stays open until the ingester stops
+    private final IndexWriter mIndexWriter;
+    //<! The files the index holds the documents of, committed when the ingester stops
+    private final IndexManifest mManifest;
+    //<! Reports the changes in the collection directories
+    private final WatchService mWatchService;
+    //<! The watched directories by their watch key
+    private final Map<WatchKey, Path> mWatchedDirectories = new ConcurrentHashMap<>();
+    //<! Files that arrived or changed and are not indexed yet
+    private final Map<Path, PendingFile> mPendingFiles = new ConcurrentHashMap<>();
+    //<! Takes the events of the watch service
+    private final ExecutorService mWatcher = Executors.newSingleThreadExecutor();
+    //<! Indexes the settled files and deletes the documents of deleted files, one at a time
+    private final ScheduledExecutorService mIndexer = Executors.newSingleThreadScheduledExecutor();
+    //<! Waits until the documents of an ingested file are searchable
+    private final ExecutorService mVisibilityWaiter = Executors.newSingleThreadExecutor();
+    //<! Reopens the searchers of the writer, null until the searcher manager is opened
+    private ControlledRealTimeReopenThread<IndexSearcher> mReopenThread;
+
+    /**
+     * Opens the writer of an existing single index
+     *
+     * @param parser creates the configuration of the writer
+     * @param locations the collection directories that are watched
+     * @param indexDirectoryLocation the location of the index
+     * @throws IOException if there is no single index at the location or it could not be opened
+     */
+    NrtIngester(Parser parser, String[] locations, String indexDirectoryLocation) throws IOException {
+        Path indexLocation = Paths.get(indexDirectoryLocation);
+        if (!ShardedIndex.isSingleIndex(indexLocation)) {
+            throw new IOException(indexLocation + " holds no single index, ingestion does not support sharded indexes");
+        }
+        mLocations = locations;
+        mDirectory = DirectoryFactory.open(indexLocation);
+        mIndexWriter = new IndexWriter(mDirectory,
+                parser.createWriterConfig(IndexWriterConfig.OpenMode.CREATE_OR_APPEND, 1));
+        mManifest = IndexManifest.fromCommitData(mIndexWriter.getLiveCommitData());
+        mWatchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Opens a searcher manager on the writer and starts the thread that reopens it. New
+     * documents are searchable after @cMAX_STALE_MS at the latest, and after
+     * @cMIN_STALE_MS while the ingester waits for them.
+     *
+     * @param searcherFactory creates the searchers of the reopened readers
+     * @return the searcher manager, it has to be closed after the ingester stopped
+     * @throws IOException if the reader could not be opened
+     */
+    ReferenceManager<IndexSearcher> openSearcherManager(SearcherFactory searcherFactory) throws IOException {
+        SearcherManager searcherManager = new SearcherManager(mIndexWriter, true, false, searcherFactory);
+        mReopenThread = new ControlledRealTimeReopenThread<>(mIndexWriter, searcherManager,
+                cMAX_STALE_MS / 1000.0, cMIN_STALE_MS / 1000.0);
+        mReopenThread.setName("nrt-reopen");
+        mReopenThread.setDaemon(true);
+        mReopenThread.start();
+        return searcherManager;
+    }
+
+    /**
+     * Starts watching the collection directories and indexes the files that changed since
+     * the last commit
+     *
+     * @throws IOException if a directory could not be watched
+     */
+    public void start() throws IOException {
+        if (mReopenThread == null) {
+            throw new IllegalStateException("The searcher manager has to be opened before ingestion starts");
+        }
+        // the directories are watched before the catch-up lists them, so no file falls in between
+        for (String location : mLocations) {
+            watch(Paths.get(location));
+        }
+        mWatcher.execute(this::takeEvents);
+        mIndexer.execute(this::catchUp);
+        long interval = Math.max(10, cSETTLE_MS / 4);
+        mIndexer.scheduleWithFixedDelay(this::indexSettledFiles, interval, interval, TimeUnit.MILLISECONDS);
+        System.out.printf("Watching %d directories for new collection files%n", mWatchedDirectories.size());
+    }
+
+    /**
+     * Stops watching, finishes the file that is being indexed and commits the index
+     * together with the manifest of the indexed files
+     *
+     * @throws IOException if the index could not be committed
+     */
+    public void stop() throws IOException {
+        mWatcher.shutdownNow();
+        mWatchService.close();
+        mIndexer.shutdown();
+        try {
+            mIndexer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mVisibilityWaiter.shutdownNow();
+        if (mReopenThread != null) {
+            mReopenThread.close();
+        }
+        mIndexWriter.setLiveCommitData(BuildCheckpoint.completeCommitData(mManifest).entrySet());
+        mIndexWriter.close();
+        mDirectory.close();
+        System.out.println("Committed the ingested files");
+    }
+
+    /**
+     * Watches a directory and all directories below it
+     */
+    private void watch(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.filter(Files::isDirectory).collect(Collectors.toList())) {
+                WatchKey key = path.register(mWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                mWatchedDirectories.put(key, path);
+            }
+        }
+    }
+
+    /**
+     * Turns the events of the watch service into pending files until the ingester stops
+     */
+    private void takeEvents() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = mWatchService.take();
+                Path directory = mWatchedDirectories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // events were lost, so compare all files with the manifest again
+                        mIndexer.execute(this::catchUp);
+                    } else if (directory != null) {
+                        handleEvent(event.kind(), directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    mWatchedDirectories.remove(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // the ingester stops
+        }
+    }
+
+    private void handleEvent(WatchEvent.Kind<?> kind, Path path) {
+        if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            mPendingFiles.remove(path);
+            mIndexer.execute(() -> removeFile(path));
+        } else if (Files.isDirectory(path)) {
+            if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+                // files may have landed in the new directory before it was watched
+                try (Stream<Path> paths = Files.walk(path)) {
+                    watch(path);
+                    paths.filter(Files::isRegularFile).forEach(this::arrive);
+                } catch (IOException e) {
+                    System.out.println("Error while watching " + path);
+                    e.printStackTrace();
+                }
+            }
+        } else if (Parser.isCollectionFile(path.toFile())) {
+            arrive(path);
+        }
+    }
+
+    /**
+     * Remembers that a file arrived or changed. A file keeps the time it first arrived.
+     */
+    private void arrive(Path path) {
+        long now = System.nanoTime();
+        mPendingFiles.compute(path, (p, pending) -> pending == null ? new PendingFile(now) : pending.changed(now));
+    }
+
+    /**
+     * Queues the files that are new or changed since the last commit and removes the
+     * documents of the files that were deleted since
+     */
+    private void catchUp() {
+        try {
+            IndexManifest current = IndexManifest.fromFiles(Parser.getFilesFromDirs(mLocations));
+            List<String> changedFiles = current.changedFiles(mManifest);
+            List<String> removedFiles = current.removedFiles(mManifest);
+            for (String path : changedFiles) {
+                arrive(Paths.get(path));
+            }
+            for (String path : removedFiles) {
+                removeFile(Paths.get(path));
+            }
+            System.out.printf("Catching up with %d new or changed and %d removed files%n", changedFiles.size(),
+                    removedFiles.size());
+        } catch (IOException e) {
+            System.out.println("Error while comparing the collection files with the index");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Indexes the pending files that did not change for @cSETTLE_MS
+     */
+    private void indexSettledFiles() {
+        long settledBefore = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(cSETTLE_MS);
+        for (Map.Entry<Path, PendingFile> entry : mPendingFiles.entrySet()) {
+            PendingFile pending = entry.getValue();
+            if (pending.mLastChangeNanos <= settledBefore && mPendingFiles.remove(entry.getKey(), pending)) {
+                try {
+                    indexFile(entry.getKey(), pending.mArrivalNanos);
+                } catch (IOException | InterruptedException e) {
+                    System.out.println("Error while ingesting " + entry.getKey());
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the documents of a file and records when they become searchable
+     */
+    private void indexFile(Path path, long arrivalNanos) throws IOException, InterruptedException {
+        File file = path.toFile();
+        if (!file.isFile()) {
+            return;
+        }
+        long start = System.nanoTime();
+        // documents that were dropped from a changed file would not be replaced, so remove all of them first
+        long[] sequenceNumber = {mIndexWriter.deleteDocuments(new Term(FieldNames.FILE.getName(), file.getPath()))};
+        long[] documents = {0};
+        Parser.parseFile(file, document -> {
+            sequenceNumber[0] = mIndexWriter.updateDocument(
+                    new Term(FieldNames.DOCNO.getName(), document.get(FieldNames.DOCNO.getName())), document);
+            documents[0]++;
+        });
+        mManifest.put(file);
+        Metrics.histogram("ingest.indexFile").record(System.nanoTime() - start);
+        Metrics.counter("ingest.files").increment();
+        Metrics.counter("ingest.documents").add(documents[0]);
+
+        long indexedSequenceNumber = sequenceNumber[0];
+        mVisibilityWaiter.execute(() -> {
+            try {
+                mReopenThread.waitForGeneration(indexedSequenceNumber);
+                long visibleNanos = System.nanoTime() - arrivalNanos;
+                Metrics.histogram("ingest.visible").record(visibleNanos);
+                System.out.printf("Ingested %s: %d documents searchable %.1f ms after the file arrived%n",
+                        file.getPath(), documents[0], visibleNanos / 1e6);
+            } catch (InterruptedException e) {
+                // the ingester stops
+            }
+        });
+    }
+
+    /**
+     * Removes the documents of a deleted file
+     */
+    private void removeFile(Path path) {
+        String filePath = path.toFile().getPath();
+        if (Files.exists(path)) {
+            return;
+        }
+        try {
+            mIndexWriter.deleteDocuments(new Term(FieldNames.FILE.getName(), filePath));
+            mManifest.remove(filePath);
+            Metrics.counter("ingest.removedFiles").increment();
+        } catch (IOException e) {
+            System.out.println("Error while removing the documents of " + filePath);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * A file that waits to be indexed
+     */
+    private static class PendingFile {
+        //<! When the file arrived
+        final long mArrivalNanos;
+        //<! When the file changed the last time
+        final long mLastChangeNanos;
+
+        PendingFile(long arrivalNanos) {
+            this(arrivalNanos, arrivalNanos);
+        }
+
+        private PendingFile(long arrivalNanos, long lastChangeNanos) {
+            mArrivalNanos = arrivalNanos;
+            mLastChangeNanos = lastChangeNanos;
+        }
+
+        PendingFile changed(long nanos) {
+            return new PendingFile(mArrivalNanos, nanos);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates the topics with every configuration of a parameter grid over one loaded
+ * index. The grid spans the similarities with their parameters (BM25 k1 and b, the mu of
+ * LMDirichlet, classic) and the number and weight of the expansion terms. The
+ * configurations run concurrently on the same reader, which shares its term statistics
+ * between them, and every configuration evaluates its topics one after the other. Each
+ * configuration writes its rankings to a run file of its own and, if there are relevance
+ * judgements, is scored against them in memory, so the configurations can be compared
+ * without evaluating the run files separately.
+ */
+public class ParameterSweep {
+    //<! The similarities of the grid
+    private static final String cSIMILARITIES = System.getProperty("sweep.similarities", "bm25,lmd,classic");
+    //<! The values of the BM25 parameter k1
+    private static final String cBM25_K1 = System.getProperty("sweep.bm25.k1", "0.9,1.1,1.2,1.5");
+    //<! The values of the BM25 parameter b
+    private static final String cBM25_B = System.getProperty("sweep.bm25.b", "0.4,0.75,0.9");
+    //<! The values of the LMDirichlet parameter mu
+    private static final String cLMD_MU = System.getProperty("sweep.lmd.mu", "500,1000,2000");
+    //<! The numbers of expansion terms
+    private static final String cEXPANSION_TERMS = System.getProperty("sweep.expansionTerms", "50");
+    //<! The weights of the best expansion term
+    private static final String cEXPANSION_WEIGHTS = System.getProperty("sweep.expansionWeight", "0.85");
+    //<! The number of configurations that are evaluated concurrently
+    private static final int cTHREADS = Integer.getInteger("sweep.threads", Runtime.getRuntime().availableProcessors());
+    //<! The directory the run files are written to
+    private static final String cDIRECTORY = System.getProperty("sweep.directory", "./sweep");
+
+    //<! identifier for the analyzer that is to be created from AnalyzerSimilarityFactory
+    private final String mAnalyzerString;
+
+    ParameterSweep(String analyzer) {
+        mAnalyzerString = analyzer;
+    }
+
+    /**
+     * Evaluates the topics with every configuration of the grid and writes a run file per
+     * configuration, named after the configuration, e.g. "bm25_k1=1.2_b=0.75_terms=50_weight=0.85.txt"
+     *
+     * @param queries the topics by id
+     * @param indexDirectoryLocation the location of the index
+     * @throws Exception if the index could not be read or a run file could not be written
+     */
+    public void run(Map<Integer, String[]> queries, String indexDirectoryLocation) throws Exception {
+        List<Configuration> configurations = configurations();
+        File directory = new File(cDIRECTORY);
+        directory.mkdirs();
+        System.out.printf("Sweeping %d configurations with %d threads%n", configurations.size(), cTHREADS);
+
+        long start = System.nanoTime();
+        try (IndexReader indexReader = ShardedIndex.open(indexDirectoryLocation)) {
+            // the analyzers need the high frequency stop words before the first topic is analyzed
+            new QueryIndex(mAnalyzerString, configurations.get(0).mSimilarity).generateHighFreqWordList(indexReader);
+            Evaluator evaluator = Evaluator.fromProperties();
+            ExecutorService executor = Executors.newFixedThreadPool(cTHREADS);
+            List<Future<Evaluator.Run>> runs = new ArrayList<>();
+            for (Configuration configuration : configurations) {
+                runs.add(executor.submit(() -> evaluate(configuration, queries, indexReader, directory, evaluator)));
+            }
+            try {
+                System.out.printf("%-50s %8s%s%n", "configuration", "seconds",
+                        evaluator != null ? String.format(" %8s %8s %12s", "map", "P_10", "ndcg_cut_10") : "");
+                String best = null;
+                double bestMap = -1;
+                for (int i = 0; i < configurations.size(); i++) {
+                    Evaluator.Run run = runs.get(i).get();
+                    String name = configurations.get(i).name();
+                    System.out.printf("%-50s %8.1f%s%n", name, configurations.get(i).mSeconds,
+                            evaluator != null ? String.format(" %8.4f %8.4f %12.4f", run.value("map"),
+                                    run.value("P_10"), ndcg(run)) : "");
+                    if (evaluator != null && run.value("map") > bestMap) {
+                        bestMap = run.value("map");
+                        best = name;
+                    }
+                }
+                if (best != null) {
+                    System.out.printf("Best configuration by map: %s (%.4f)%n", best, bestMap);
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        System.out.printf("Swept %d configurations in %.1f s, the run files are in %s%n", configurations.size(),
+                (System.nanoTime() - start) / 1e9, directory.getPath());
+    }
+
+    /**
+     * Evaluates all topics with one configuration and writes its run file. The time the
+     * configuration took is kept in the configuration.
+     *
+     * @param evaluator scores the rankings, null if there are no relevance judgements
+     * @return the scored rankings, null if there are no relevance judgements
+     */
+    private Evaluator.Run evaluate(Configuration configuration, Map<Integer, String[]> queries,
+                                   IndexReader indexReader, File directory, Evaluator evaluator) throws IOException {
+        long start = System.nanoTime();
+        Evaluator.Run run = evaluator != null ? evaluator.newRun() : null;
+        QueryIndex queryIndex = new QueryIndex(mAnalyzerString, configuration.mSimilarity);
+        queryIndex.setExpansion(configuration.mExpansionTerms, configuration.mExpansionWeight);
+        // the configurations already keep all threads busy, so a search does not spread over the segments
+        IndexSearcher indexSearcher = queryIndex.createSearcher(indexReader, null);
+        try (PrintWriter writer = new PrintWriter(new File(directory, configuration.name() + ".txt"),
+                StandardCharsets.UTF_8)) {
+            for (Map.Entry<Integer, String[]> query : queries.entrySet()) {
+                ScoreDoc[] hits = queryIndex.searchTopic(query.getValue(), indexSearcher);
+                String[] docnos = queryIndex.writeResults(writer, query.getKey(), hits, indexSearcher);
+                if (run != null) {
+                    run.add(query.getKey(), docnos, hits);
+                }
+            }
+        }
+        configuration.mSeconds = (System.nanoTime() - start) / 1e9;
+        return run;
+    }
+
+    /**
+     * @return the nDCG at 10 of a run, NaN if eval.ndcgCutoffs leaves it out
+     */
+    private static double ndcg(Evaluator.Run run) {
+        return Arrays.asList(run.measures()).contains("ndcg_cut_10") ? run.value("ndcg_cut_10") : Double.NaN;
+    }
+
+    /**
+     * @return every combination of a similarity with its parameters and an expansion
+     */
+    private static List<Configuration> configurations() {
+        List<String> similarities = new ArrayList<>();
+        for (String similarity : values(cSIMILARITIES)) {
+            switch (similarity.toLowerCase(Locale.ROOT)) {
+                case "bm25":
+                    for (String k1 : values(cBM25_K1)) {
+                        for (String b : values(cBM25_B)) {
+                            similarities.add("bm25:k1=" + k1 + ",b=" + b);
+                        }
+                    }
+                    break;
+                case "lmd":
+                    for (String mu : values(cLMD_MU)) {
+                        similarities.add("lmd:mu=" + mu);
+                    }
+                    break;
+                default:
+                    similarities.add(similarity);
+            }
+        }
+        List<Configuration> configurations = new ArrayList<>();
+        for (String similarity : similarities) {
+            for (String terms : values(cEXPANSION_TERMS)) {
+                for (String weight : values(cEXPANSION_WEIGHTS)) {
+                    configurations.add(new Configuration(similarity, Integer.parseInt(terms),
+                            Float.parseFloat(weight)));
+                }
+            }
+        }
+        return configurations;
+    }
+
+    /**
+     * @return the values of a comma separated list
+     */
+    private static List<String> values(String list) {
+        List<String> values = new ArrayList<>();
+        for (String value : list.split(",")) {
+            if (!value.isBlank()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * One point of the grid
+     */
+    private static class Configuration {
+        //<! The similarity together with its parameters, e.g. "bm25:k1=1.2,b=0.75"
+        final String mSimilarity;
+        //<! The number of expansion terms
+        final int mExpansionTerms;
+        //<! The weight of the best expansion term
+        final float mExpansionWeight;
+        //<! The time the evaluation of the topics took in seconds
+        double mSeconds;
+
+        Configuration(String similarity, int expansionTerms, float expansionWeight) {
+            mSimilarity = similarity;
+            mExpansionTerms = expansionTerms;
+            mExpansionWeight = expansionWeight;
+        }
+
+        /**
+         * @return the name of the configuration, which is also the name of its run file
+         */
+        String name() {
+            return mSimilarity.replace(':', '_').replace(',', '_') + "_terms=" + mExpansionTerms
+                    + "_weight=" + mExpansionWeight;
+        }
+    }
+}
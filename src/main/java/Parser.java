@@ -1,14 +1,24 @@
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.jsoup.*;
@@ -32,7 +42,29 @@ public class Parser {
     private static final String cQUERIES_NARRATIVE = "narr";
     // Identifier used to identify the topic number
     private static final String cQUERIES_NUM = "num";
-
+    // Number of threads that split the collection files into documents
+    private static final int cPARSER_THREADS = Integer.getInteger("indexing.parserThreads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    // Number of threads that add the parsed documents to the index
+    private static final int cWRITER_THREADS = Integer.getInteger("indexing.writerThreads",
+            Runtime.getRuntime().availableProcessors());
+    // Capacity of the queues between the stages of the indexing pipeline
+    private static final int cQUEUE_CAPACITY = Integer.getInteger("indexing.queueCapacity", 1024);
+    // RAM in MB the index writer may buffer before it flushes a segment
+    private static final double cRAM_BUFFER_MB = Double.parseDouble(System.getProperty("indexing.ramBufferMB", "256"));
+    // Number of buffered documents that trigger a flush. -1 flushes by RAM usage only
+    private static final int cMAX_BUFFERED_DOCS = Integer.getInteger("indexing.maxBufferedDocs",
+            IndexWriterConfig.DISABLE_AUTO_FLUSH);
+    // Reader used to split the collection files into documents: "mmap" or the Jsoup based "jsoup"
+    private static final String cDOCUMENT_READER = System.getProperty("indexing.reader", "mmap");
+    // Whether every collection is indexed into a shard of its own, the shards are built in parallel
+    private static final boolean cSHARDED = Boolean.getBoolean("index.sharded");
+    // Type of the text field. Its term vectors are read by the query expansion
+    private static final FieldType cTEXT_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+    static {
+        cTEXT_FIELD_TYPE.setStoreTermVectors(true);
+        cTEXT_FIELD_TYPE.freeze();
+    }
 
     Parser(String analyzer, String similarity) {
         mAnalyzerString = analyzer;
@@ -55,35 +87,258 @@ public class Parser {
     public boolean createIndex(String ftLocation, String fr94Location, String fbisLocation, String latimesLocation,
                                String indexDirectoryLocation) throws IOException {
         System.out.println(Paths.get(indexDirectoryLocation).toAbsolutePath());
-        Directory directory = FSDirectory.open(Paths.get(indexDirectoryLocation));
+        String[] locations = {ftLocation, fbisLocation, latimesLocation, fr94Location};
+        // the index analyzer needs the high frequency stop words, so compute them before the first document is indexed
+        new StopListBuilder(mAnalyzerString).buildIfMissing(locations);
+        if (cSHARDED) {
+            return forEachShard(locations, indexDirectoryLocation,
+                    (shardLocations, shardLocation) -> createIndex(shardLocations, shardLocation, locations.length));
+        }
+        return createIndex(locations, Paths.get(indexDirectoryLocation), 1);
+    }
+
+    /**
+     * Creates an index of the given collections. The build is committed periodically by a
+     * BuildCheckpoint. If the index holds a build that did not finish, the build resumes:
+     * the documents of files that were not completely indexed at the last checkpoint are
+     * deleted, and only those files are indexed again.
+     * @param locations locations of the collections
+     * @param indexLocation location where the created index should be stored
+     * @param shards number of indexes that are built at the same time, which share the indexing resources
+     * @return true if parsing was successful. Otherwise, false
+     */
+    private boolean createIndex(String[] locations, Path indexLocation, int shards) throws IOException {
+        Directory directory = FSDirectory.open(indexLocation);
+        IndexManifest indexedFiles = BuildCheckpoint.unfinishedBuild(directory);
+        boolean resume = indexedFiles != null;
 
         // Set up an index writer to add process and save documents to the index
-        IndexWriterConfig config = new IndexWriterConfig(AnalyzerSimilarityFactory.getAnalyzer(mAnalyzerString,"index"));
-        config.setSimilarity(AnalyzerSimilarityFactory.getSimilarity(mSimilarityString));
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-        IndexWriter indexWriter = new IndexWriter(directory, config);
+        IndexWriter indexWriter = new IndexWriter(directory, createWriterConfig(resume
+                ? IndexWriterConfig.OpenMode.APPEND : IndexWriterConfig.OpenMode.CREATE, shards));
 
-        String[] locations = {ftLocation, fbisLocation, latimesLocation, fr94Location};
-        boolean successful = indexCollections(locations, indexWriter);
+        List<File> allFiles = getFilesFromDirs(locations);
+        List<File> files = allFiles;
+        if (resume) {
+            files = filesToResume(indexWriter, indexedFiles, allFiles);
+            System.out.printf("Resuming the build of %s, %d of %d files are left%n", indexLocation, files.size(),
+                    allFiles.size());
+        } else {
+            indexedFiles = IndexManifest.fromCommitData(null);
+        }
+
+        BuildCheckpoint checkpoint = new BuildCheckpoint(indexWriter, indexedFiles, locations, allFiles);
+        boolean successful;
+        try {
+            checkpoint.start();
+            successful = indexCollections(files, locations, indexWriter, shards, checkpoint);
+        } catch (IOException | RuntimeException e) {
+            // the build resumes from the last checkpoint
+            checkpoint.abort();
+            indexWriter.rollback();
+            directory.close();
+            throw e;
+        }
+
+        // remember the indexed files, so the index can be updated incrementally later on
+        checkpoint.finish(successful);
 
         // add the created documents to the index and close everything
         indexWriter.close();
         directory.close();
-        System.out.println("Indexing finished successfully");
+        System.out.println(successful ? "Indexing finished successfully"
+                : "Indexing was interrupted, it resumes on the next run");
         return successful;
     }
 
+    /**
+     * Finds the files a resumed build still has to index and deletes the documents they
+     * contributed before the build stopped. Files that changed since the last checkpoint
+     * are indexed again, the documents of deleted files are removed.
+     * @param indexWriter the writer of the resumed build
+     * @param indexedFiles the files that were completely indexed at the last checkpoint,
+     *                     changed and deleted files are removed from it
+     * @param allFiles all files of the build
+     * @return the files that are left
+     */
+    private static List<File> filesToResume(IndexWriter indexWriter, IndexManifest indexedFiles, List<File> allFiles)
+            throws IOException {
+        IndexManifest current = IndexManifest.fromFiles(allFiles);
+        Set<String> changedFiles = new HashSet<>(current.changedFiles(indexedFiles));
+        for (String path : current.removedFiles(indexedFiles)) {
+            indexWriter.deleteDocuments(new Term(FieldNames.FILE.getName(), path));
+            indexedFiles.remove(path);
+        }
+        List<File> files = new ArrayList<>();
+        for (File file : allFiles) {
+            if (changedFiles.contains(file.getPath())) {
+                // a file in progress left only part of its documents, so remove all of them
+                indexWriter.deleteDocuments(new Term(FieldNames.FILE.getName(), file.getPath()));
+                indexedFiles.remove(file.getPath());
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * This method brings an existing index up to date with the dataset. Only files that
+     * are new or changed since the last commit are parsed again. Their documents replace
+     * the indexed documents with the same DOCNO. Documents of removed files are deleted.
+     * If the index holds no file manifest, it is created from scratch.
+     *
+     * @param ftLocation             location of the Financial Times Limited dataset
+     * @param fr94Location           location of the Federal Register dataset
+     * @param fbisLocation           location of the Foreign Broadcast Information
+     *                               Service dataset
+     * @param latimesLocation        location of the Los Angeles Times dataset
+     * @param indexDirectoryLocation location of the index that should be updated
+     * @return true if updating was successful. Otherwise, false
+     */
+    public boolean updateIndex(String ftLocation, String fr94Location, String fbisLocation, String latimesLocation,
+                               String indexDirectoryLocation) throws IOException {
+        String[] locations = {ftLocation, fbisLocation, latimesLocation, fr94Location};
+        new StopListBuilder(mAnalyzerString).buildIfMissing(locations);
+        if (cSHARDED) {
+            return forEachShard(locations, indexDirectoryLocation,
+                    (shardLocations, shardLocation) -> updateIndex(shardLocations, shardLocation, locations.length));
+        }
+        return updateIndex(locations, Paths.get(indexDirectoryLocation), 1);
+    }
+
+    /**
+     * Brings an existing index of the given collections up to date
+     * @param locations locations of the collections
+     * @param indexLocation location of the index that should be updated
+     * @param shards number of indexes that are updated at the same time, which share the indexing resources
+     * @return true if updating was successful. Otherwise, false
+     */
+    private boolean updateIndex(String[] locations, Path indexLocation, int shards) throws IOException {
+        long start = System.nanoTime();
+        Directory directory = FSDirectory.open(indexLocation);
+        IndexWriter indexWriter = new IndexWriter(directory,
+                createWriterConfig(IndexWriterConfig.OpenMode.CREATE_OR_APPEND, shards));
+
+        IndexManifest indexed = IndexManifest.fromCommitData(indexWriter.getLiveCommitData());
+        if (BuildCheckpoint.unfinishedBuild(directory) != null) {
+            indexWriter.rollback();
+            directory.close();
+            System.out.println("Index build did not finish, resuming it");
+            return createIndex(locations, indexLocation, shards);
+        }
+        if (indexed.isEmpty()) {
+            indexWriter.rollback();
+            directory.close();
+            System.out.println("Index has no file manifest, creating a new one");
+            return createIndex(locations, indexLocation, shards);
+        }
+
+        IndexManifest current = IndexManifest.fromFiles(getFilesFromDirs(locations));
+        List<String> changedFiles = current.changedFiles(indexed);
+        List<String> removedFiles = current.removedFiles(indexed);
+
+        // documents that were dropped from a changed file would not be replaced, so remove all of them first
+        List<File> files = new ArrayList<>();
+        for (String path : changedFiles) {
+            indexWriter.deleteDocuments(new Term(FieldNames.FILE.getName(), path));
+            files.add(new File(path));
+        }
+        for (String path : removedFiles) {
+            indexWriter.deleteDocuments(new Term(FieldNames.FILE.getName(), path));
+        }
+
+        IndexingPipeline pipeline = new IndexingPipeline(indexWriter, Math.max(1, cPARSER_THREADS / shards),
+                Math.max(1, cWRITER_THREADS / shards), cQUEUE_CAPACITY, true);
+        boolean successful = false;
+        try {
+            successful = files.isEmpty() || pipeline.run(files, locations);
+        } finally {
+            if (!successful) {
+                // the deletions are dropped together with the partly added documents, so the last commit stays intact
+                indexWriter.rollback();
+                directory.close();
+            }
+        }
+        if (!successful) {
+            System.out.println("Updating " + indexLocation + " was interrupted, the index is unchanged");
+            return false;
+        }
+
+        indexWriter.setLiveCommitData(BuildCheckpoint.completeCommitData(current).entrySet());
+        indexWriter.close();
+        directory.close();
+        System.out.printf("Updated index %s with %d new or changed and %d removed files in %.1f s%n",
+                indexLocation, changedFiles.size(), removedFiles.size(), (System.nanoTime() - start) / 1e9);
+        return true;
+    }
+
+    /**
+     * Builds or updates the shard of every collection in parallel. Every collection is
+     * stored in a subdirectory of the index location named after the collection.
+     * @param locations locations of the collections
+     * @param indexDirectoryLocation location of the sharded index
+     * @param task builds or updates the shard of one collection
+     * @return true if all shards were built successfully. Otherwise, false
+     */
+    private static boolean forEachShard(String[] locations, String indexDirectoryLocation, ShardTask task)
+            throws IOException {
+        Path indexLocation = Paths.get(indexDirectoryLocation);
+        if (ShardedIndex.isSingleIndex(indexLocation)) {
+            throw new IOException(indexLocation + " holds an index that is not sharded, delete it to build shards");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(locations.length);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (String location : locations) {
+            results.add(executor.submit(() -> task.run(new String[]{location},
+                    ShardedIndex.shardLocation(indexLocation, location))));
+        }
+        boolean successful = true;
+        try {
+            for (Future<Boolean> result : results) {
+                successful &= result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing the shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return successful;
+    }
+
+    /**
+     * Creates the configuration of the index writers
+     * @param openMode whether an existing index is replaced or appended to
+     * @param shards number of index writers that share the RAM buffer
+     * @return the index writer configuration
+     */
+    IndexWriterConfig createWriterConfig(IndexWriterConfig.OpenMode openMode, int shards) throws IOException {
+        // the wrapper estimates the time spent in analysis for the indexing metrics
+        IndexWriterConfig config = new IndexWriterConfig(
+                new TimingAnalyzer(AnalyzerSimilarityFactory.getAnalyzer(mAnalyzerString,"index")));
+        config.setSimilarity(AnalyzerSimilarityFactory.getSimilarity(mSimilarityString));
+        config.setOpenMode(openMode);
+        // documents are streamed into the writer, so these buffers bound the memory used for indexing
+        config.setRAMBufferSizeMB(cRAM_BUFFER_MB / shards);
+        config.setMaxBufferedDocs(cMAX_BUFFERED_DOCS);
+        return config;
+    }
+
     /**
      * Generic function to recursively get all the files to be indexed from a directory
      * @param dir Files are searched in this directory
      * @return List of all files to be indexed
      */
-    private static ArrayList<File> getFilesFromDir(File dir){
+    static ArrayList<File> getFilesFromDir(File dir){
         ArrayList<File> files = new ArrayList();
         for (File nested : dir.listFiles()) {
             if(nested.isDirectory()) {
                 files.addAll(getFilesFromDir(nested));
-            }else if( !nested.getName().matches(".*(read|Store).*") ){
+            }else if( isCollectionFile(nested) ){
                 files.add(nested);
             }
         }
@@ -91,30 +346,126 @@ public class Parser {
     }
 
     /**
-     * This will index all the documents from FR94
-     * @param locations Location of FR94 dataset
+     * @param file a file in a collection directory
+     * @return false for the readme and store files next to the collection files
+     */
+    static boolean isCollectionFile(File file) {
+        return !file.getName().matches(".*(read|Store).*");
+    }
+
+    /**
+     * Gets all the files to be indexed from several directories
+     * @param locations Files are searched in these directories
+     * @return List of all files to be indexed
+     */
+    static List<File> getFilesFromDirs(String[] locations) {
+        List<File> files = new ArrayList<>();
+        for (String location : locations) {
+            files.addAll(getFilesFromDir(new File(location)));
+        }
+        return files;
+    }
+
+    /**
+     * This will index the given files of the collections with the
+     * multi-threaded indexing pipeline
+     * @param files the files that should be indexed
+     * @param locations Locations of the collections
      * @param indexWriter the index writer used to create the index
+     * @param shards number of indexes that are built at the same time, which share the threads
+     * @param checkpoint is told about every file whose documents were all added
      * @return boolean success value
      * @throws IOException
      */
-    private static boolean indexCollections(String[] locations, IndexWriter indexWriter) throws IOException {
-        for (String location: locations) {
-            File dir = new File(location);
-            List<Document> documents = new ArrayList<>();
-
-            for (File file:getFilesFromDir(dir)) {
-                Scanner scan = new Scanner(file);
-                scan.useDelimiter(Pattern.compile(cDOCUMENT_SEPARATOR));
-                System.out.println(file.getName());
-                while (scan.hasNext()) {
-                    String docRaw = scan.next();
-                    Document luceneDoc = createDocument(formatDocument(docRaw));
-                    documents.add(luceneDoc);
-                }
+    private static boolean indexCollections(List<File> files, String[] locations, IndexWriter indexWriter,
+                                            int shards, BuildCheckpoint checkpoint) throws IOException {
+        IndexingPipeline pipeline = new IndexingPipeline(indexWriter, Math.max(1, cPARSER_THREADS / shards),
+                Math.max(1, cWRITER_THREADS / shards), cQUEUE_CAPACITY, false);
+        pipeline.setFileListener(checkpoint::fileIndexed);
+        return pipeline.run(files, locations);
+    }
+
+    /**
+     * Splits a collection file into lucene documents with the reader selected by
+     * cDOCUMENT_READER
+     * @param file the collection file to be parsed
+     * @param consumer receives every document of the file
+     * @throws IOException if the file could not be read
+     * @throws InterruptedException if the thread was interrupted while handing over a document
+     */
+    static void parseFile(File file, DocumentConsumer consumer) throws IOException, InterruptedException {
+        // every document remembers its file, so it can be deleted when the file changes
+        String path = file.getPath();
+        DocumentConsumer fileConsumer = document -> {
+            document.add(new StringField(FieldNames.FILE.getName(), path, Field.Store.NO));
+            consumer.accept(document);
+        };
+        if (cDOCUMENT_READER.equalsIgnoreCase("jsoup")) {
+            parseFileWithJsoup(file, fileConsumer);
+        } else {
+            TrecDocumentReader.read(file, fileConsumer);
+        }
+    }
+
+    /**
+     * Splits a collection file into lucene documents by building a Jsoup DOM for
+     * every document
+     * @param file the collection file to be parsed
+     * @param consumer receives every document of the file
+     * @throws IOException if the file could not be read
+     * @throws InterruptedException if the thread was interrupted while handing over a document
+     */
+    static void parseFileWithJsoup(File file, DocumentConsumer consumer) throws IOException, InterruptedException {
+        parseFieldsWithJsoup(file, (docno, text) -> consumer.accept(createDocument(docno, text)));
+    }
+
+    /**
+     * Splits a collection file into the DOCNO and TEXT of its documents with the reader
+     * selected by cDOCUMENT_READER. Unlike parseFile, no lucene documents with their
+     * indexing fields are built, e.g. for counting the terms of the collections.
+     * @param file the collection file to be parsed
+     * @param consumer receives DOCNO and TEXT of every document of the file
+     * @throws IOException if the file could not be read
+     * @throws InterruptedException if the thread was interrupted while handing over a document
+     */
+    static void parseFields(File file, FieldConsumer consumer) throws IOException, InterruptedException {
+        if (cDOCUMENT_READER.equalsIgnoreCase("jsoup")) {
+            parseFieldsWithJsoup(file, consumer);
+        } else {
+            TrecDocumentReader.readFields(file, consumer);
+        }
+    }
+
+    private static void parseFieldsWithJsoup(File file, FieldConsumer consumer)
+            throws IOException, InterruptedException {
+        try (Scanner scan = new Scanner(file)) {
+            scan.useDelimiter(Pattern.compile(cDOCUMENT_SEPARATOR));
+            while (scan.hasNext()) {
+                Map<String, String> doc = formatDocument(scan.next());
+                consumer.accept(doc.get(FieldNames.DOCNO.getName()), doc.get(FieldNames.TEXT.getName()));
             }
-            indexWriter.addDocuments(documents);
         }
-        return true;
+    }
+
+    /**
+     * Receives the documents that were parsed from a collection file
+     */
+    interface DocumentConsumer {
+        void accept(Document document) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Receives DOCNO and TEXT of the documents that were parsed from a collection file
+     */
+    interface FieldConsumer {
+        void accept(String docno, String text) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Builds or updates the shard of one collection
+     */
+    private interface ShardTask {
+        boolean run(String[] locations, Path indexLocation) throws IOException;
     }
 
     /**
@@ -122,7 +473,7 @@ public class Parser {
      * @param docRaw documents to be parsed
      * @return document parsed map of fields
      */
-    private static Map formatDocument(String docRaw){
+    static Map<String, String> formatDocument(String docRaw){
         org.jsoup.nodes.Document docu = Jsoup.parse(docRaw);
         String text = docu.body().select(FieldNames.TEXT.getName()).text();
         String docno = docu.body().select(FieldNames.DOCNO.getName()).text();
@@ -137,14 +488,18 @@ public class Parser {
 
     /**
      * Creates a new Lucene document with given data
-     * @param doc Map of data to create a doc
+     * @param docno identifier of the document
+     * @param text text of the document
      * @return Lucene document
      */
-    private static Document createDocument(Map doc)
+    static Document createDocument(String docno, String text)
     {
         Document document = new Document();
-        document.add(new TextField(FieldNames.DOCNO.getName(), doc.get(FieldNames.DOCNO.getName()).toString() , Field.Store.YES));
-        document.add(new TextField(FieldNames.TEXT.getName(), doc.get(FieldNames.TEXT.getName()).toString() , Field.Store.YES));
+        // DOCNO is indexed as a single keyword, so documents can be replaced by their DOCNO
+        document.add(new StringField(FieldNames.DOCNO.getName(), docno, Field.Store.YES));
+        // the rankings are written from the doc values, without loading the stored text
+        document.add(new SortedDocValuesField(FieldNames.DOCNO.getName(), new BytesRef(docno)));
+        document.add(new Field(FieldNames.TEXT.getName(), text, cTEXT_FIELD_TYPE));
         return document;
     }
 
@@ -158,8 +513,32 @@ public class Parser {
      */
     public HashMap<Integer, String[]> createQueries(String queryFileLocation) throws IOException {
         System.out.println("Started extracting queries");
+        HashMap<Integer, String[]> queryMap;
+        try (Scanner scan = new Scanner(new File(queryFileLocation))) {
+            queryMap = extractQueries(scan);
+        }
+        System.out.println("Finished extracting queries");
+        return queryMap;
+    }
+
+    /**
+     * This method extracts the queries from topics in the format of the topics file
+     *
+     * @param topics the topics, e.g. the body of a request
+     * @return a map <Integer,String> which maps id of a query to its search text
+     */
+    public HashMap<Integer, String[]> createQueries(Readable topics) {
+        return extractQueries(new Scanner(topics));
+    }
+
+    /**
+     * This method extracts the queries the scanner reads
+     *
+     * @param scan reads the topics
+     * @return a map <Integer,String> which maps id of a query to its search text
+     */
+    private HashMap<Integer, String[]> extractQueries(Scanner scan) {
         HashMap<Integer, String[]> queryMap = new HashMap<>();
-        Scanner scan = new Scanner(new File(queryFileLocation));
         scan.useDelimiter(Pattern.compile(cQUERIES_SEPARATOR));
 
         //int id = 1;
@@ -189,8 +568,6 @@ public class Parser {
 
             queryMap.put(id, queryArray);
         }
-
-        System.out.println("Finished extracting queries");
         return queryMap;
     }
 }
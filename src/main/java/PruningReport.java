@@ -0,0 +1,200 @@
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Shows what pruning the second pass saves and what it changes. The expanded query of
+ * every topic is built for three configurations and run repeatedly on the same searcher:
+ * "exhaustive" scores and counts every matching document, "dynamic" stops counting at
+ * the total hits threshold and skips blocks that cannot enter the top hits, and
+ * "pruned" stops counting at a much lower threshold and additionally leaves out
+ * low-weight expansion terms and frequent narrative terms. The dynamic configuration uses
+ * the settings of a normal run, the pruned one its own pruning.* properties. The
+ * latencies are compared with the exhaustive run, and the hits by their overlap with the
+ * exhaustive hits at several depths. If there are relevance judgements (see
+ * eval.qrels), the hits of every configuration are also scored, so the report shows
+ * how much effectiveness the pruning costs.
+ */
+public class PruningReport {
+    //<! How often the query of every topic is run per configuration
+    private static final int cREPETITIONS = Integer.getInteger("pruning.repetitions", 5);
+    //<! The number of hits counted exactly before documents are skipped in the pruned configuration
+    private static final int cTOTAL_HITS_THRESHOLD = Integer.getInteger("pruning.totalHitsThreshold", 10);
+    //<! Expansion terms below this weight are left out in the pruned configuration
+    private static final float cMIN_EXPANSION_WEIGHT = Float.parseFloat(
+            System.getProperty("pruning.minExpansionWeight", "0.2"));
+    //<! The number of distinct narrative terms kept in the pruned configuration
+    private static final int cMAX_NARRATIVE_TERMS = Integer.getInteger("pruning.maxNarrativeTerms", 10);
+    //<! The number of hits of the second pass
+    private static final int cMAX_RESULTS = 1000;
+    //<! The depths at which the hits are compared with the exhaustive hits
+    private static final int[] cDEPTHS = {10, 100, 1000};
+    //<! The measures the hits of every configuration are scored with, if there are judgements
+    private static final String[] cMEASURES = {"map", "P_10"};
+
+    /**
+     * @param args analyzer, similarity and optionally the index and topics locations,
+     *             e.g. "custom bm25 ./index ./resources/topics/topics"
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: PruningReport <analyzer> <similarity> [index] [topics]");
+            System.exit(1);
+        }
+        String indexLocation = args.length > 2 ? args[2] : "./index";
+        String topicsLocation = args.length > 3 ? args[3] : "./resources/topics/topics";
+        Map<Integer, String[]> topics = new Parser(args[0], args[1]).createQueries(topicsLocation);
+
+        String[] names = {"exhaustive", "dynamic", "pruned"};
+        QueryIndex[] queryIndexes = new QueryIndex[names.length];
+        for (int i = 0; i < names.length; i++) {
+            queryIndexes[i] = new QueryIndex(args[0], args[1]);
+        }
+        queryIndexes[0].setPruning(Integer.MAX_VALUE, 0, -1);
+        queryIndexes[1].setPruning(QueryIndex.cTOTAL_HITS_THRESHOLD, QueryIndex.cMIN_EXPANSION_WEIGHT,
+                QueryIndex.cMAX_NARRATIVE_TERMS);
+        queryIndexes[2].setPruning(cTOTAL_HITS_THRESHOLD, cMIN_EXPANSION_WEIGHT, cMAX_NARRATIVE_TERMS);
+
+        try (IndexReader reader = ShardedIndex.open(indexLocation)) {
+            ExecutorService searchExecutor = queryIndexes[0].createSearchExecutor();
+            try {
+                IndexSearcher searcher = queryIndexes[0].createSearcher(reader, searchExecutor);
+                report(names, queryIndexes, new ArrayList<>(topics.keySet()), new ArrayList<>(topics.values()),
+                        searcher);
+            } finally {
+                searchExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Runs the queries of all configurations and prints the comparison
+     */
+    private static void report(String[] names, QueryIndex[] queryIndexes, List<Integer> ids, List<String[]> topics,
+                               IndexSearcher searcher) throws Exception {
+        int configurations = queryIndexes.length;
+        Query[][] queries = new Query[configurations][topics.size()];
+        ScoreDoc[][][] hits = new ScoreDoc[configurations][topics.size()][];
+        long[] clauses = new long[configurations];
+        for (int c = 0; c < configurations; c++) {
+            for (int t = 0; t < topics.size(); t++) {
+                queries[c][t] = queryIndexes[c].buildFinalQuery(topics.get(t), searcher);
+                clauses[c] += ((BooleanQuery) queries[c][t]).clauses().size();
+                // the first run is not timed, it also warms up the configuration
+                hits[c][t] = queryIndexes[c].search(searcher, queries[c][t], cMAX_RESULTS);
+            }
+        }
+
+        // the configurations take turns, so none of them profits from a warmer cache
+        LatencyHistogram[] latencies = new LatencyHistogram[configurations];
+        for (int c = 0; c < configurations; c++) {
+            latencies[c] = new LatencyHistogram();
+        }
+        for (int repetition = 0; repetition < cREPETITIONS; repetition++) {
+            for (int t = 0; t < topics.size(); t++) {
+                for (int c = 0; c < configurations; c++) {
+                    long start = System.nanoTime();
+                    queryIndexes[c].search(searcher, queries[c][t], cMAX_RESULTS);
+                    latencies[c].record(System.nanoTime() - start);
+                }
+            }
+        }
+
+        Evaluator.Run[] runs = evaluate(ids, hits, searcher);
+        StringBuilder header = new StringBuilder(String.format("%-12s %8s %10s %10s %10s %9s",
+                "config", "clauses", "mean ms", "p50 ms", "p95 ms", "speedup"));
+        for (int depth : cDEPTHS) {
+            header.append(String.format(" %12s", "overlap@" + depth));
+        }
+        if (runs != null) {
+            for (String measure : cMEASURES) {
+                header.append(String.format(" %8s %8s", measure, "delta"));
+            }
+        }
+        System.out.println(header);
+        double baselineMean = latencies[0].totalNanos() / (double) latencies[0].count();
+        for (int c = 0; c < configurations; c++) {
+            double mean = latencies[c].totalNanos() / (double) latencies[c].count();
+            StringBuilder row = new StringBuilder(String.format("%-12s %8.1f %10.2f %10.2f %10.2f %8.2fx",
+                    names[c], clauses[c] / (double) topics.size(), mean / 1e6,
+                    latencies[c].percentileNanos(50) / 1e6, latencies[c].percentileNanos(95) / 1e6,
+                    baselineMean / mean));
+            for (int depth : cDEPTHS) {
+                double overlap = 0;
+                for (int t = 0; t < topics.size(); t++) {
+                    overlap += overlap(hits[0][t], hits[c][t], depth);
+                }
+                row.append(String.format(" %12.3f", overlap / topics.size()));
+            }
+            if (runs != null) {
+                for (String measure : cMEASURES) {
+                    double value = runs[c].value(measure);
+                    row.append(String.format(" %8.4f %+8.4f", value, value - runs[0].value(measure)));
+                }
+            }
+            System.out.println(row);
+        }
+        System.out.printf("%d topics, %d timed runs per topic and configuration%n", topics.size(), cREPETITIONS);
+        System.out.printf("dynamic: total hits threshold %d, min expansion weight %.2f, max narrative terms %d%n",
+                QueryIndex.cTOTAL_HITS_THRESHOLD, QueryIndex.cMIN_EXPANSION_WEIGHT, QueryIndex.cMAX_NARRATIVE_TERMS);
+        System.out.printf("pruned: total hits threshold %d, min expansion weight %.2f, max narrative terms %d%n",
+                cTOTAL_HITS_THRESHOLD, cMIN_EXPANSION_WEIGHT, cMAX_NARRATIVE_TERMS);
+        if (runs == null) {
+            System.out.println("No relevance judgements, the effectiveness is not reported");
+        } else {
+            System.out.printf("%d judged topics scored%n", runs[0].topics());
+        }
+    }
+
+    /**
+     * Scores the hits of every configuration against the relevance judgements
+     *
+     * @return the runs of the configurations, or null if there are no judgements
+     */
+    private static Evaluator.Run[] evaluate(List<Integer> ids, ScoreDoc[][][] hits, IndexSearcher searcher)
+            throws IOException {
+        Evaluator evaluator = Evaluator.fromProperties();
+        if (evaluator == null) {
+            return null;
+        }
+        Evaluator.Run[] runs = new Evaluator.Run[hits.length];
+        for (int c = 0; c < hits.length; c++) {
+            runs[c] = evaluator.newRun();
+            for (int t = 0; t < ids.size(); t++) {
+                runs[c].add(ids.get(t), DocnoLookup.docnos(searcher.getIndexReader(), hits[c][t]), hits[c][t]);
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * @return the share of the baseline's top hits that are also among the other top hits
+     */
+    private static double overlap(ScoreDoc[] baseline, ScoreDoc[] other, int depth) {
+        int baselineDepth = Math.min(depth, baseline.length);
+        if (baselineDepth == 0) {
+            return 1;
+        }
+        Set<Integer> docs = new HashSet<>();
+        for (int i = 0; i < Math.min(depth, other.length); i++) {
+            docs.add(other[i].doc);
+        }
+        int shared = 0;
+        for (int i = 0; i < baselineDepth; i++) {
+            if (docs.contains(baseline[i].doc)) {
+                shared++;
+            }
+        }
+        return shared / (double) baselineDepth;
+    }
+}
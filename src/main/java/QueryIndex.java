@@ -5,71 +5,88 @@ import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.codecs.TermStats;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexReaderContext;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.Similarity;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.misc.*;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public class QueryIndex {
-    //<! The number of terms the original query is expanded with
-    private final short cTOP_TERMS_LIMIT = 50;
-    //<! The weight factor for the terms that are used for query expansion
-    private final float cEXPANDED_TERM_WEIGHT = 0.85F;
     //<! The maximum number of search results that are retrieved for the first iteration of the query
     private final short cMAX_RESULTS_FIRST_PASS = 10;
     //<! The maximum number of search results that are retrieved for the final query
     private final short cMAX_RESULTS_SECOND_PASS = 1000;
+    //<! The number of hits per topic that searchTopics writes
+    private final int cDEPTH = Integer.getInteger("query.depth", cMAX_RESULTS_SECOND_PASS);
+    //<! The maximum number of hits of a topic that are retrieved and written at a time
+    private final int cPAGE_SIZE = Integer.getInteger("query.pageSize", cMAX_RESULTS_SECOND_PASS);
     //<! The high frequency words limit
     private final int cMAX_FREQ_WORD_LIMIT = 180000;
     //<! The location where the file with the rankings of the queries is stored
     private final String cRANKINGS_LOCATION = "./rankings.txt";
     //<! The location where the file with the high freq words is stored
     private final String cFREQ_LIST_LOCATION = "./freqlist.txt";
+    //<! Where the feedback terms are read from: "vectors" uses the term vectors, "stored" re-analyzes the stored text
+    private final String cFEEDBACK_SOURCE = System.getProperty("feedback.source", "vectors");
+    //<! The number of topics that are evaluated concurrently
+    private final int cTOPIC_THREADS = Integer.getInteger("query.threads", Runtime.getRuntime().availableProcessors());
+    //<! The number of threads a single search spreads its index segments over
+    private final int cSEARCH_THREADS = Integer.getInteger("search.threads", Runtime.getRuntime().availableProcessors());
+    //<! The number of topics that are evaluated before the measured run
+    private final int cWARMUP_TOPICS = Integer.getInteger("query.warmupTopics", 0);
+    //<! The number of terms with the highest document frequency that are searched before the measured run
+    private final int cWARMUP_TERMS = Integer.getInteger("query.warmupTerms", 0);
+    //<! The number of hits that are counted exactly before non-competitive documents are skipped
+    static final int cTOTAL_HITS_THRESHOLD = Integer.getInteger("search.totalHitsThreshold", 100);
+    //<! Expansion terms whose weight is below this are left out of the second pass
+    static final float cMIN_EXPANSION_WEIGHT = Float.parseFloat(System.getProperty("query.minExpansionWeight", "0"));
+    //<! The number of distinct narrative terms the second pass keeps, -1 keeps all
+    static final int cMAX_NARRATIVE_TERMS = Integer.getInteger("query.maxNarrativeTerms", -1);
+    //<! The number of terms the original query is expanded with
+    private int mTopTermsLimit = 50;
+    //<! The weight factor for the terms that are used for query expansion
+    private float mExpandedTermWeight = 0.85F;
+    //<! The number of hits that are counted exactly before non-competitive documents are skipped
+    private int mTotalHitsThreshold = cTOTAL_HITS_THRESHOLD;
+    //<! Expansion terms whose weight is below this are left out of the second pass
+    private float mMinExpansionWeight = cMIN_EXPANSION_WEIGHT;
+    //<! The number of distinct narrative terms the second pass keeps, -1 keeps all
+    private int mMaxNarrativeTerms = cMAX_NARRATIVE_TERMS;
     //<! identifier for the analyzer that is to be created from AnalyzerSimilarityFactory
     private String mAnalyzerString;
     //<! identifier for the similarity that is to be created from AnalyzerSimilarityFactory
     private String mSimilarityString;
+    //<! Time spent on extracting the feedback terms over all topics
+    private final LongAdder mFeedbackNanos = new LongAdder();
+    //<! When the index was opened for querying, 0 if it was opened elsewhere
+    private volatile long mOpenNanos;
+    //<! Whether the latency of the first evaluated topic was reported
+    private final AtomicBoolean mFirstTopicReported = new AtomicBoolean();
+    //<! Collects the candidate expansion terms, one per topic thread so its storage is reused
+    private final ThreadLocal<ExpansionTerms> mExpansionTerms = ThreadLocal.withInitial(ExpansionTerms::new);
+    //<! Caches the expansion terms and hits of the topics, shared by the query indexes of the process
+    private ResultCache mResultCache = ResultCache.shared();
+    //<! Scores the rankings of searchTopics against the relevance judgements, null if there are none
+    private Evaluator mEvaluator;
 
     QueryIndex(String analyzer, String similarity) {
         mAnalyzerString = analyzer;
         mSimilarityString = similarity;
     }
 
-    /**
-     * This comparator ranks a map by its (double) value in descending order
-     */
-    static class TermMapComparator implements Comparator<String>{
-        Map<String,Double> map;
-        TermMapComparator(Map<String,Double> map) {
-            this.map = map;
-        }
-
-
-        @Override
-        public int compare(String o1, String o2) {
-            if (map.get(o1) < map.get(o2)) {
-                return 1;
-            } else if (map.get(o1).equals(map.get(o2))) {
-                return 0;
-            }
-            return -1;
-        }
-    }
-
     /**
      *  This function executes a set of queries on a given index and writes the resulting
      *  hit scores into a file located at cRANKINGS_LOCATION
@@ -77,87 +94,495 @@ public class QueryIndex {
      * @param queries a map <Integer,String> which maps id of a query to its search text
      * @param indexDirectoryLocation location where the created index should be stored
      * @throws IOException when the directory could not be opened
-     * @throws ParseException when a query could not be parsed
      */
     public void queryMap(HashMap<Integer,String[]> queries,
                          String indexDirectoryLocation) throws Exception {
-        Directory directory = FSDirectory.open(Paths.get(indexDirectoryLocation));
-        DirectoryReader directoryReader = DirectoryReader.open(directory);
-        IndexReader indexReader = DirectoryReader.open(directory);
-        IndexSearcher indexSearcher = new IndexSearcher(directoryReader);
-        indexSearcher.setSimilarity(AnalyzerSimilarityFactory.getSimilarity(mSimilarityString));
+        mOpenNanos = System.nanoTime();
+        // a sharded index is read as one index, so the statistics cover all shards
+        IndexReader indexReader = ShardedIndex.open(indexDirectoryLocation);
+        //the searcher spreads the segments of a query over this pool
+        ExecutorService searchExecutor = createSearchExecutor();
+        IndexSearcher indexSearcher = createSearcher(indexReader, searchExecutor);
 
         generateHighFreqWordList(indexReader);
-
-        MultiFieldQueryParser parser = new MultiFieldQueryParser(new String[]{FieldNames.TEXT.getName()},
-                AnalyzerSimilarityFactory.getAnalyzer(mAnalyzerString, "query"));
+        mEvaluator = Evaluator.fromProperties();
 
         PrintWriter writer = new PrintWriter(cRANKINGS_LOCATION, StandardCharsets.UTF_8);
-        System.out.println("Started querying");
-        for (int id : queries.keySet()) {
-            List<String> titleStrings = tokenizeString(QueryParser.escape(queries.get(id)[0]));
-            List<String> descriptionStrings = tokenizeString(QueryParser.escape(queries.get(id)[1]));
-            List<String> narrativeStrings = tokenizeString(QueryParser.escape(queries.get(id)[2]));
-            StringBuilder queryBuilder = new StringBuilder();
-            for (String currTerm : titleStrings){
-                //add weights to terms
-                queryBuilder.append(currTerm).append("^").append(1.5F).append(" ");
-            }
-            for (String currTerm : descriptionStrings){
-                //add weights to terms
-                queryBuilder.append(currTerm).append("^").append(0.9F).append(" ");
+        try {
+            warmUp(queries, indexSearcher);
+            System.out.println("Started querying");
+            searchTopics(queries, indexSearcher, writer);
+        } finally {
+            searchExecutor.shutdownNow();
+        }
+
+        //close everything we used
+        mResultCache.save();
+        writer.close();
+        indexReader.close();
+        System.out.println("Finished querying");
+    }
+
+    /**
+     *  This function writes the result cache to its file, if one is configured
+     *
+     * @throws IOException when the file could not be written
+     */
+    void saveResultCache() throws IOException {
+        mResultCache.save();
+    }
+
+    /**
+     *  This function warms up the page cache, the JIT compiler and the term statistics
+     *  before the measured run. It searches the @cWARMUP_TERMS terms with the highest
+     *  document frequency and evaluates the first @cWARMUP_TOPICS topics. The topics are
+     *  evaluated by a query index of their own, so the measured run is not answered from
+     *  the result cache, and the latencies of the warm-up are dropped afterwards.
+     *
+     * @param queries the topics of the run
+     * @param indexSearcher the searcher of the run
+     * @throws Exception when the index could not be read
+     */
+    void warmUp(Map<Integer,String[]> queries, IndexSearcher indexSearcher) throws Exception {
+        if (cWARMUP_TERMS <= 0 && cWARMUP_TOPICS <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        org.apache.lucene.misc.TermStats[] hotTerms = new org.apache.lucene.misc.TermStats[0];
+        if (cWARMUP_TERMS > 0) {
+            hotTerms = HighFreqTerms.getHighFreqTerms(indexSearcher.getIndexReader(),
+                    cWARMUP_TERMS, FieldNames.TEXT.getName(), new HighFreqTerms.DocFreqComparator());
+            for (org.apache.lucene.misc.TermStats hotTerm : hotTerms) {
+                indexSearcher.search(new TermQuery(new Term(FieldNames.TEXT.getName(), hotTerm.termtext)),
+                        cMAX_RESULTS_FIRST_PASS);
             }
-            for (String currTerm : narrativeStrings){
-                //add weights to terms
-                queryBuilder.append(currTerm).append("^").append(0.3F).append(" ");
+        }
+        QueryIndex warmUpIndex = new QueryIndex(mAnalyzerString, mSimilarityString);
+        warmUpIndex.mResultCache = new ResultCache();
+        warmUpIndex.mOpenNanos = mOpenNanos;
+        int topics = 0;
+        for (String[] topic : queries.values()) {
+            if (topics == cWARMUP_TOPICS) {
+                break;
             }
+            warmUpIndex.searchTopic(topic, indexSearcher);
+            topics++;
+        }
+        if (topics > 0) {
+            // the warm-up reported the cold latency of the first topic
+            mFirstTopicReported.set(true);
+        }
+        Metrics.clearHistograms("query.");
+        double warmUpMillis = (System.nanoTime() - start) / 1e6;
+        Metrics.gauge("query.warmupMs", warmUpMillis);
+        System.out.printf("Warmed up with %d terms and %d topics in %.1f ms%n", hotTerms.length, topics, warmUpMillis);
+    }
 
-            //construct query for first pass
-            Query origQuery = parser.parse(queryBuilder.toString());
-
-            //get top results for first iteration of the query and extract their terms
-            ScoreDoc[] hits = indexSearcher.search(origQuery, cMAX_RESULTS_FIRST_PASS).scoreDocs;
-            Map<String,Double> termWeightMap = new HashMap<>();
-            for (ScoreDoc hit : hits)
-            {
-                Document hitDoc = indexSearcher.doc(hit.doc);
-                List<String> termList = tokenizeString(Arrays.toString(hitDoc.getValues(FieldNames.TEXT.getName())));
-                for (String currTerm : termList) {
-                    termWeightMap.put(currTerm, calculateTermWeight(currTerm,
-                            termList,
-                            indexSearcher,
-                            indexReader));
+    /**
+     *  This function creates the pool a single search spreads the index segments over
+     *
+     * @return the pool with @cSEARCH_THREADS threads
+     */
+    ExecutorService createSearchExecutor() {
+        return Executors.newFixedThreadPool(cSEARCH_THREADS);
+    }
+
+    /**
+     *  This function creates a searcher that scores with the similarity selected by
+     *  @mSimilarityString
+     *
+     * @param indexReader the reader to be searched
+     * @param searchExecutor the pool a single search spreads the index segments over
+     * @return the searcher
+     */
+    IndexSearcher createSearcher(IndexReader indexReader, ExecutorService searchExecutor) {
+        IndexSearcher indexSearcher = new IndexSearcher(indexReader, searchExecutor);
+        indexSearcher.setSimilarity(AnalyzerSimilarityFactory.getSimilarity(mSimilarityString));
+        return indexSearcher;
+    }
+
+    /**
+     *  This function evaluates a set of topics and writes the resulting hit scores in the
+     *  run format. The topics are evaluated concurrently, but their results are written
+     *  in the order of the topic map, so the output is the same as for a sequential run.
+     *  The @cDEPTH hits of a topic are retrieved and written in pages of @cPAGE_SIZE hits,
+     *  so deep results do not hold all hits of a topic at once. If queryMap found
+     *  relevance judgements, the hits are also scored against them.
+     *
+     * @param queries a map <Integer,String> which maps id of a query to its search text
+     * @param indexSearcher the searcher the topics are run with
+     * @param writer receives the results
+     * @throws Exception when a topic could not be evaluated
+     */
+    void searchTopics(Map<Integer,String[]> queries,
+                      IndexSearcher indexSearcher,
+                      PrintWriter writer) throws Exception {
+        long queryingStart = System.nanoTime();
+        long feedbackStart = mFeedbackNanos.sum();
+        ExecutorService topicExecutor = Executors.newFixedThreadPool(cTOPIC_THREADS);
+        List<Integer> ids = new ArrayList<>(queries.keySet());
+        List<Future<ResultPages>> results = new ArrayList<>();
+        Evaluator.Run run = mEvaluator != null ? mEvaluator.newRun() : null;
+        long evaluationNanos = 0;
+        for (int id : ids) {
+            results.add(topicExecutor.submit(() -> searchTopicPages(queries.get(id), indexSearcher)));
+        }
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                ResultPages pages = results.get(i).get();
+                List<String[]> docnoPages = new ArrayList<>();
+                List<ScoreDoc[]> hitPages = new ArrayList<>();
+                long writeNanos = 0;
+                try {
+                    while (pages.hasNext()) {
+                        ScoreDoc[] hits = pages.next();
+                        long writeStart = System.nanoTime();
+                        String[] docnos = writeResults(writer, ids.get(i), hits, indexSearcher);
+                        writeNanos += System.nanoTime() - writeStart;
+                        if (run != null) {
+                            docnoPages.add(docnos);
+                            hitPages.add(hits);
+                        }
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                Metrics.histogram("query.writeResults").record(writeNanos);
+                if (run != null) {
+                    long evaluationStart = System.nanoTime();
+                    run.add(ids.get(i), docnoPages.stream().flatMap(Arrays::stream).toArray(String[]::new),
+                            hitPages.stream().flatMap(Arrays::stream).toArray(ScoreDoc[]::new));
+                    evaluationNanos += System.nanoTime() - evaluationStart;
                 }
             }
-            //rank all terms from the top documents, so we can get the top @cTOP_TERMS_LIMIT terms
-            Map<String,Double> topTermMap = new TreeMap<>(new TermMapComparator(termWeightMap));
-            topTermMap.putAll(termWeightMap);
-            //reduce map to top @cTOP_TERMS_LIMIT terms
-            topTermMap = topTermMap.entrySet().stream().limit(cTOP_TERMS_LIMIT)
-                    .collect(TreeMap::new, (m, e) -> m.put(e.getKey(), e.getValue()), Map::putAll);
-            double  maxTermWeight = (Collections.max(topTermMap.values()));
-
-            //construct the final query with the extracted terms
-            for (String currTerm : topTermMap.keySet()){
-                float weight = (float) (cEXPANDED_TERM_WEIGHT * (topTermMap.get(currTerm)/maxTermWeight));
-                //add weights to terms
-                queryBuilder.append(currTerm).append("^").append(weight).append(" ");
-            }
-            Query finalQuery = parser.parse(queryBuilder.toString());
+        } finally {
+            topicExecutor.shutdownNow();
+        }
+
+        long queryingNanos = System.nanoTime() - queryingStart;
+        TermStatisticsCache termStatistics = TermStatisticsCache.forReader(indexSearcher.getIndexReader());
+        System.out.printf("Evaluated %d topics in %.2f s (%.2f ms per topic), feedback (%s): %.2f ms per topic%n",
+                queries.size(), queryingNanos / 1e9, queryingNanos / 1e6 / queries.size(),
+                cFEEDBACK_SOURCE, (mFeedbackNanos.sum() - feedbackStart) / 1e6 / queries.size());
+        System.out.println("Term statistics cache: " + termStatistics.hits() + " hits, "
+                + termStatistics.misses() + " misses");
+        System.out.println(mResultCache.report());
+        for (String stage : new String[]{"query.topic", "query.firstPass", "query.feedback", "query.secondPass",
+                "query.nextPage", "query.writeResults"}) {
+            Metrics.printHistogram(stage);
+        }
+        if (run != null) {
+            reportEvaluation(run, evaluationNanos);
+        }
+    }
+
+    /**
+     *  This function prints the measures of an evaluated run in the format of trec_eval
+     *  and records them as the gauges eval.<measure>
+     *
+     * @param run the evaluated topics
+     * @param evaluationNanos the time spent on the evaluation
+     */
+    private void reportEvaluation(Evaluator.Run run, long evaluationNanos) {
+        System.out.printf("Evaluated the rankings of %d judged topics in %.2f ms%n", run.topics(),
+                evaluationNanos / 1e6);
+        System.out.print(run.format());
+        for (String measure : run.measures()) {
+            Metrics.gauge("eval." + measure, run.value(measure));
+        }
+        Metrics.gauge("eval.ms", evaluationNanos / 1e6);
+    }
+
+    /**
+     *  This function writes the hits of a topic in the run format
+     *
+     * @param writer receives the results
+     * @param id the id of the topic
+     * @param hits the hits of the topic
+     * @param indexSearcher the searcher that found the hits
+     * @return the DOCNOs of the hits
+     * @throws IOException when a document could not be read
+     */
+    String[] writeResults(PrintWriter writer, int id, ScoreDoc[] hits, IndexSearcher indexSearcher) throws IOException {
+        String[] docnos = DocnoLookup.docnos(indexSearcher.getIndexReader(), hits);
+        for (int i = 0; i < hits.length; i++)
+        {
+            writer.println(id + " 0 " + docnos[i] + " 0 " + hits[i].score + " GROUP10");
+        }
+        return docnos;
+    }
+
+    /**
+     *  This function runs both passes of a topic: the first pass retrieves the top documents,
+     *  whose terms expand the query for the final pass
+     *
+     * @param topic title, description and narrative of the topic
+     * @param indexSearcher the searcher both passes are run with
+     * @return the hits of the expanded query
+     * @throws IOException when the index could not be read
+     */
+    ScoreDoc[] searchTopic(String[] topic, IndexSearcher indexSearcher) throws IOException {
+        return searchTopic(topic, indexSearcher, cMAX_RESULTS_SECOND_PASS);
+    }
+
+    /**
+     *  This function runs both passes of a topic and retrieves the given number of hits
+     *  with the expanded query
+     *
+     * @param topic title, description and narrative of the topic
+     * @param indexSearcher the searcher both passes are run with
+     * @param maxResults the number of hits that are retrieved for the final query
+     * @return the hits of the expanded query
+     * @throws IOException when the index could not be read
+     */
+    ScoreDoc[] searchTopic(String[] topic, IndexSearcher indexSearcher, int maxResults) throws IOException {
+        long start = System.nanoTime();
+        String cacheKey = ResultCache.key(topic, cacheSettings(), indexSearcher.getIndexReader());
+        ScoreDoc[] hits = mResultCache.getHits(cacheKey, maxResults, () -> {
+            Query finalQuery = buildFinalQuery(topic, cacheKey, indexSearcher);
             //get the final results with the expanded query
-            hits = indexSearcher.search(finalQuery, cMAX_RESULTS_SECOND_PASS).scoreDocs;
-            for (ScoreDoc hit : hits)
-            {
-                Document hitDoc = indexSearcher.doc(hit.doc);
-                writer.println(id + " 0 " + hitDoc.get(FieldNames.DOCNO.getName()) + " 0 " + hit.score + " GROUP10");
+            long secondPassStart = System.nanoTime();
+            ScoreDoc[] finalHits = search(indexSearcher, finalQuery, maxResults);
+            Metrics.histogram("query.secondPass").record(System.nanoTime() - secondPassStart);
+            return finalHits;
+        });
+        long end = System.nanoTime();
+        Metrics.histogram("query.topic").record(end - start);
+        if (mOpenNanos != 0 && mFirstTopicReported.compareAndSet(false, true)) {
+            reportFirstTopic(start, end);
+        }
+        return hits;
+    }
+
+    /**
+     *  This function runs both passes of a topic and returns its hits down to @cDEPTH
+     *  in pages of @cPAGE_SIZE hits. The first page is retrieved right away, the others
+     *  when they are iterated.
+     *
+     * @param topic title, description and narrative of the topic
+     * @param indexSearcher the searcher both passes are run with
+     * @return the pages of hits of the expanded query
+     * @throws IOException when the index could not be read
+     */
+    ResultPages searchTopicPages(String[] topic, IndexSearcher indexSearcher) throws IOException {
+        ScoreDoc[] firstPage = searchTopic(topic, indexSearcher, Math.min(cPAGE_SIZE, cDEPTH));
+        return new ResultPages(indexSearcher, () -> buildFinalQuery(topic, indexSearcher), firstPage, cPAGE_SIZE,
+                cDEPTH, mTotalHitsThreshold);
+    }
+
+    /**
+     *  This function builds the expanded query of a topic without running it
+     *
+     * @param topic title, description and narrative of the topic
+     * @param indexSearcher the searcher the first pass is run with
+     * @return the query of the second pass
+     * @throws IOException when the index could not be read
+     */
+    Query buildFinalQuery(String[] topic, IndexSearcher indexSearcher) throws IOException {
+        return buildFinalQuery(topic, ResultCache.key(topic, cacheSettings(), indexSearcher.getIndexReader()),
+                indexSearcher);
+    }
+
+    /**
+     *  This function runs the first pass of a topic and builds the expanded query from its
+     *  clauses and the extracted terms. The narrative and expansion terms of the expanded
+     *  query are pruned as configured by @mMaxNarrativeTerms and @mMinExpansionWeight.
+     *
+     * @param topic title, description and narrative of the topic
+     * @param cacheKey the key the expansion terms are cached with
+     * @param indexSearcher the searcher the first pass is run with
+     * @return the query of the second pass
+     * @throws IOException when the index could not be read
+     */
+    private Query buildFinalQuery(String[] topic, String cacheKey, IndexSearcher indexSearcher) throws IOException {
+        List<String> titleTerms = tokenizeString(topic[0]);
+        List<String> descriptionTerms = tokenizeString(topic[1]);
+        List<String> narrativeTerms = tokenizeString(topic[2]);
+        //add weights to terms
+        WeightedQueryBuilder queryBuilder = new WeightedQueryBuilder(FieldNames.TEXT.getName())
+                .add(titleTerms, 1.5F)
+                .add(descriptionTerms, 0.9F)
+                .add(narrativeTerms, 0.3F);
+
+        //construct query for first pass
+        Query origQuery = queryBuilder.build();
+        ResultCache.Expansion expansion = mResultCache.getExpansion(cacheKey,
+                () -> expandQuery(origQuery, indexSearcher));
+
+        if (mMaxNarrativeTerms >= 0) {
+            //the second pass starts over with the informative narrative terms only
+            queryBuilder = new WeightedQueryBuilder(FieldNames.TEXT.getName())
+                    .add(titleTerms, 1.5F)
+                    .add(descriptionTerms, 0.9F)
+                    .add(pruneNarrativeTerms(narrativeTerms, indexSearcher.getIndexReader()), 0.3F);
+        }
+        //construct the final query by extending the first pass clauses with the extracted terms
+        expansion.addTo(queryBuilder, mMinExpansionWeight);
+        return queryBuilder.build();
+    }
+
+    /**
+     *  This function keeps the @mMaxNarrativeTerms distinct narrative terms with the
+     *  lowest document frequency. Frequent narrative terms have a low idf, at a boost of
+     *  0.3 they barely change the ranking, but their long postings dominate the cost.
+     *
+     * @param narrativeTerms the analyzed terms of the narrative
+     * @param indexReader the reader the document frequencies are read from
+     * @return the narrative terms that are kept, in their original order
+     * @throws IOException when the index could not be read
+     */
+    private List<String> pruneNarrativeTerms(List<String> narrativeTerms, IndexReader indexReader)
+            throws IOException {
+        TermStatisticsCache termStatistics = TermStatisticsCache.forReader(indexReader);
+        Map<String,Integer> docFreqs = new HashMap<>();
+        for (String term : narrativeTerms) {
+            if (!docFreqs.containsKey(term)) {
+                docFreqs.put(term, termStatistics.docFreq(term));
+            }
+        }
+        List<String> distinctTerms = new ArrayList<>(docFreqs.keySet());
+        distinctTerms.sort(Comparator.comparing((String term) -> docFreqs.get(term))
+                .thenComparing(Comparator.naturalOrder()));
+        Set<String> keptTerms = new HashSet<>(distinctTerms.subList(0, Math.min(mMaxNarrativeTerms,
+                distinctTerms.size())));
+        List<String> prunedTerms = new ArrayList<>();
+        for (String term : narrativeTerms) {
+            if (keptTerms.contains(term)) {
+                prunedTerms.add(term);
             }
         }
+        return prunedTerms;
+    }
 
-        //close everything we used
-        writer.close();
-        directoryReader.close();
-        directory.close();
-        System.out.println("Finished querying");
+    /**
+     *  This function retrieves the top hits of a query. Once the collector has counted
+     *  @mTotalHitsThreshold hits, it only asks for documents that can still enter the top
+     *  hits, so the scorers skip the blocks whose maximum score is too low (block-max WAND).
+     *  The top hits are the same as with exhaustive scoring, only the total hit count is a
+     *  lower bound.
+     *
+     * @param indexSearcher the searcher the query is run with
+     * @param query the query
+     * @param maxResults the number of hits
+     * @return the top hits
+     * @throws IOException when the index could not be read
+     */
+    ScoreDoc[] search(IndexSearcher indexSearcher, Query query, int maxResults) throws IOException {
+        //the collectors of all segments share the threshold and the minimum competitive score
+        CollectorManager<TopScoreDocCollector, TopDocs> collectorManager =
+                TopScoreDocCollector.createSharedManager(maxResults, null, mTotalHitsThreshold);
+        return indexSearcher.search(query, collectorManager).scoreDocs;
+    }
+
+    /**
+     *  This function changes the query expansion, so several expansions can be compared
+     *  in one run
+     *
+     * @param topTermsLimit the number of terms the query is expanded with
+     * @param expandedTermWeight the weight of the best expansion term
+     */
+    void setExpansion(int topTermsLimit, float expandedTermWeight) {
+        mTopTermsLimit = topTermsLimit;
+        mExpandedTermWeight = expandedTermWeight;
+    }
+
+    /**
+     *  This function replaces the result cache of the process, e.g. with an empty one, so
+     *  a measurement is not answered from entries of another run
+     *
+     * @param resultCache the cache of the expansion terms and hits of the topics
+     */
+    void setResultCache(ResultCache resultCache) {
+        mResultCache = resultCache;
+    }
+
+    /**
+     *  This function changes how the second pass is pruned, so the pruning can be compared
+     *  with exhaustive scoring in one run
+     *
+     * @param totalHitsThreshold the number of hits that are counted exactly before
+     *                           non-competitive documents are skipped
+     * @param minExpansionWeight the weight below which expansion terms are left out
+     * @param maxNarrativeTerms the number of distinct narrative terms that are kept, -1 for all
+     */
+    void setPruning(int totalHitsThreshold, float minExpansionWeight, int maxNarrativeTerms) {
+        mTotalHitsThreshold = totalHitsThreshold;
+        mMinExpansionWeight = minExpansionWeight;
+        mMaxNarrativeTerms = maxNarrativeTerms;
+    }
+
+    /**
+     *  This function reports the latency of the first topic and the time from opening the
+     *  index to the first result. They include the costs of a cold page cache and JIT
+     *  compiler. They are only reported by a query index that opened the index itself.
+     *
+     * @param start when the evaluation of the first topic started
+     * @param end when the evaluation of the first topic ended
+     */
+    private void reportFirstTopic(long start, long end) {
+        double firstTopicMillis = (end - start) / 1e6;
+        Metrics.gauge("query.firstTopicMs", firstTopicMillis);
+        double timeToFirstQueryMillis = (end - mOpenNanos) / 1e6;
+        Metrics.gauge("query.timeToFirstQueryMs", timeToFirstQueryMillis);
+        System.out.printf("First topic: %.1f ms, time to first query: %.1f ms%n", firstTopicMillis,
+                timeToFirstQueryMillis);
+    }
+
+    /**
+     *  This function runs the first pass of a topic and extracts the top @mTopTermsLimit
+     *  terms of the retrieved documents
+     *
+     * @param origQuery the query of the first pass
+     * @param indexSearcher the searcher the first pass is run with
+     * @return the expansion terms together with their weights
+     * @throws IOException when the index could not be read
+     */
+    ResultCache.Expansion expandQuery(Query origQuery, IndexSearcher indexSearcher) throws IOException {
+        IndexReader indexReader = indexSearcher.getIndexReader();
+        TermStatisticsCache termStatistics = TermStatisticsCache.forReader(indexReader);
+
+        //get top results for first iteration of the query and extract their terms
+        long firstPassStart = System.nanoTime();
+        ScoreDoc[] hits = search(indexSearcher, origQuery, cMAX_RESULTS_FIRST_PASS);
+        long feedbackStart = System.nanoTime();
+        Metrics.histogram("query.firstPass").record(feedbackStart - firstPassStart);
+        ExpansionTerms expansionTerms = mExpansionTerms.get();
+        expansionTerms.clear();
+        for (ScoreDoc hit : hits)
+        {
+            Terms termVector = indexReader.getTermVector(hit.doc, FieldNames.TEXT.getName());
+            if (termVector == null || cFEEDBACK_SOURCE.equalsIgnoreCase("stored")) {
+                addStoredTextTerms(indexSearcher.doc(hit.doc), expansionTerms, termStatistics);
+                continue;
+            }
+            //the term vector holds every term of the document once, together with its frequency
+            TermsEnum termsEnum = termVector.iterator();
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                //a term keeps its weight in the last feedback document it occurs in
+                int ordinal = expansionTerms.add(term);
+                expansionTerms.setWeight(ordinal, calculateTermWeight(termsEnum.totalTermFreq(),
+                        expansionTerms.docFreq(ordinal, termStatistics),
+                        termStatistics.docCount()));
+            }
+        }
+        long feedbackNanos = System.nanoTime() - feedbackStart;
+        mFeedbackNanos.add(feedbackNanos);
+        Metrics.histogram("query.feedback").record(feedbackNanos);
+        //select the top @mTopTermsLimit terms from the terms of the top documents
+        return expansionTerms.top(mTopTermsLimit, mExpandedTermWeight);
+    }
+
+    /**
+     *  This function describes the settings that influence the ranking of a topic, so
+     *  cached results are only reused for the same settings
+     *
+     * @return the settings
+     */
+    private String cacheSettings() {
+        return mAnalyzerString + "/" + mSimilarityString + "/" + cFEEDBACK_SOURCE + "/" + mTopTermsLimit
+                + "/" + mExpandedTermWeight + "/" + cMAX_RESULTS_FIRST_PASS + "/" + mMinExpansionWeight
+                + "/" + mMaxNarrativeTerms;
     }
 
     /**
@@ -166,7 +591,7 @@ public class QueryIndex {
      * @throws Exception
      */
 
-    private void generateHighFreqWordList(IndexReader indexReader) throws Exception {
+    void generateHighFreqWordList(IndexReader indexReader) throws Exception {
         File file = new File(cFREQ_LIST_LOCATION);
 
         FileWriter writer;
@@ -192,6 +617,8 @@ public class QueryIndex {
         }
 
         writer.close();
+        // the analyzers have to pick up the new stop words
+        AnalyzerRegistry.reload();
     }
 
     /**
@@ -201,14 +628,17 @@ public class QueryIndex {
      *  @return the tokenized string
      */
     //Credits: https://stackoverflow.com/questions/6334692/how-to-use-a-lucene-analyzer-to-tokenize-a-string
-    private List<String> tokenizeString(String string) {
+    List<String> tokenizeString(String string) {
         List<String> result = new ArrayList<String>();
         try {
             Analyzer analyzer = AnalyzerSimilarityFactory.getAnalyzer(mAnalyzerString, "query");
-            TokenStream stream  = analyzer.tokenStream(null, new StringReader(string));
-            stream.reset();
-            while (stream.incrementToken()) {
-                result.add(stream.getAttribute(CharTermAttribute.class).toString());
+            try (TokenStream stream = analyzer.tokenStream(null, new StringReader(string))) {
+                CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+                stream.reset();
+                while (stream.incrementToken()) {
+                    result.add(termAttribute.toString());
+                }
+                stream.end();
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -216,36 +646,48 @@ public class QueryIndex {
         return result;
     }
 
+    /**
+     * Adds the terms of a document to the term weights by re-analyzing its stored text.
+     * This is only used for indexes without term vectors.
+     *
+     * @param hitDoc the document whose terms should be added
+     * @param expansionTerms collects the terms and their weights
+     * @param termStatistics the document frequencies of the index
+     */
+    private void addStoredTextTerms(Document hitDoc,
+                                    ExpansionTerms expansionTerms,
+                                    TermStatisticsCache termStatistics) throws IOException {
+        List<String> termList = tokenizeString(Arrays.toString(hitDoc.getValues(FieldNames.TEXT.getName())));
+        //count every term once, so the weighting stays linear in the length of the document
+        Map<String,Integer> termFrequencies = new HashMap<>();
+        for (String currTerm : termList) {
+            termFrequencies.merge(currTerm, 1, Integer::sum);
+        }
+        for (Map.Entry<String,Integer> termFrequency : termFrequencies.entrySet()) {
+            int ordinal = expansionTerms.add(new BytesRef(termFrequency.getKey()));
+            expansionTerms.setWeight(ordinal, calculateTermWeight(termFrequency.getValue(),
+                    expansionTerms.docFreq(ordinal, termStatistics),
+                    termStatistics.docCount()));
+        }
+    }
+
     /**
      * This function calculates the tf * idf weight for a term in a document
      *
-     * @param term the term which we want to calculate the weight for
-     * @param termList the list of all terms in a document
-     * @param indexSearcher we need the indexSearcher to get the total number of docs in the index
-     * @param indexReader we need the indexReader to read out the doc frequency
+     * @param termFrequency the number of times the term occurs in the document
+     * @param docFreq the number of documents that contain the term
+     * @param docCount the number of documents that have a text field
      * @return the calculated term weight
      */
-    private double calculateTermWeight(String term,
-                                       List<String> termList,
-                                       IndexSearcher indexSearcher,
-                                       IndexReader indexReader) {
-        CollectionStatistics collectionStats = null;
-        try {
-            collectionStats = indexSearcher.collectionStatistics(FieldNames.TEXT.getName());
-            double totalDocCount = collectionStats.docCount();
-            Term termInstance = new Term(FieldNames.TEXT.getName(),term);
-            double docCountWithTerm = indexReader.docFreq(termInstance);
-            if(docCountWithTerm == 0){
-                return 0;
-            }
-            //formulas taken from this paper: http://www.inf.ed.ac.uk/teaching/courses/tts/papers/singhal.pdf
-            double tf = 1 + Math.log(1 + Math.log((double)Collections.frequency(termList,term)));
-            double idf = Math.log10((totalDocCount+1)/docCountWithTerm);
-            return tf*idf;
-        } catch (IOException e) {
-            System.out.println("Error while calculating term weight");
-            e.printStackTrace();
+    static double calculateTermWeight(long termFrequency, int docFreq, long docCount) {
+        double totalDocCount = docCount;
+        double docCountWithTerm = docFreq;
+        if(docCountWithTerm == 0){
+            return 0;
         }
-        return 0;
+        //formulas taken from this paper: http://www.inf.ed.ac.uk/teaching/courses/tts/papers/singhal.pdf
+        double tf = 1 + Math.log(1 + Math.log((double)termFrequency));
+        double idf = Math.log10((totalDocCount+1)/docCountWithTerm);
+        return tf*idf;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,270 @@
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.StandardDirectoryReader;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Caches the expansion terms and the final hits of topics. An entry is keyed by the
+ * normalized topic text, the analyzer, the similarity, the settings that influence the
+ * ranking and the identity of the index commit. The random id of the commit tells a
+ * rebuilt or another index apart from one with the same generation and version, so the
+ * document ids of cached hits always belong to the searched index. The cache can be
+ * written to a file, so a repeated run skips the topics it already evaluated. The file
+ * is loaded once and its cache is shared by all query indexes of the process.
+ */
+public class ResultCache {
+    //<! The maximum number of topics whose expansion terms and hits are cached
+    private static final int cMAX_ENTRIES = Integer.getInteger("cache.size", 1000);
+    //<! Time in seconds after which an entry expires, 0 if entries never expire
+    private static final long cTIME_TO_LIVE_SECONDS = Long.getLong("cache.ttlSeconds", 0);
+    //<! The file the cache is loaded from and saved to. Nothing is persisted if it is not set
+    private static final String cCACHE_FILE = System.getProperty("cache.file");
+    //<! The cache that is loaded from and saved to the cache file, null until it is first used
+    private static ResultCache sShared;
+
+    //<! The expansion terms of the topics
+    private final LruCache<String, Expansion> mExpansions =
+            new LruCache<>(cMAX_ENTRIES, cTIME_TO_LIVE_SECONDS * 1000);
+    //<! The final hits of the topics
+    private final LruCache<String, Hits> mHits = new LruCache<>(cMAX_ENTRIES, cTIME_TO_LIVE_SECONDS * 1000);
+    //<! Whether the cache is saved to the cache file
+    private final boolean mPersistent;
+
+    /**
+     * Creates an empty cache that is not saved, e.g. for a warm-up that must not answer
+     * the measured run
+     */
+    ResultCache() {
+        this(false);
+    }
+
+    private ResultCache(boolean persistent) {
+        mPersistent = persistent;
+    }
+
+    /**
+     * @return the cache that is shared by the process, loaded with the entries of the
+     *         cache file if there is one
+     */
+    static synchronized ResultCache shared() {
+        if (sShared == null) {
+            sShared = new ResultCache(true);
+            if (cCACHE_FILE != null && new File(cCACHE_FILE).exists()) {
+                sShared.load(new File(cCACHE_FILE));
+            }
+        }
+        return sShared;
+    }
+
+    /**
+     * Creates the key of a topic
+     *
+     * @param topic title, description and narrative of the topic
+     * @param settings analyzer, similarity and every other setting that influences the ranking
+     * @param indexReader the reader that is searched
+     * @return the key, or null if the identity of the reader cannot be determined
+     */
+    public static String key(String[] topic, String settings, IndexReader indexReader) {
+        String indexVersion = indexVersion(indexReader);
+        if (indexVersion == null) {
+            return null;
+        }
+        StringJoiner key = new StringJoiner("\u0000");
+        for (String field : topic) {
+            key.add(field.trim().replaceAll("\\s+", " "));
+        }
+        return key.add(settings).add(indexVersion).toString();
+    }
+
+    /**
+     * Returns the cached hits of a topic or computes and caches them
+     *
+     * @param key the key of the topic, null if the topic cannot be cached
+     * @param maxResults the number of hits
+     * @param loader computes the hits
+     * @return the hits of the topic
+     * @throws IOException if the hits could not be computed
+     */
+    public ScoreDoc[] getHits(String key, int maxResults, Loader<ScoreDoc[]> loader) throws IOException {
+        if (key == null) {
+            return loader.load();
+        }
+        return get(mHits, key + "\u0000" + maxResults, () -> new Hits(loader.load())).toScoreDocs();
+    }
+
+    /**
+     * Returns the cached expansion terms of a topic or computes and caches them
+     *
+     * @param key the key of the topic, null if the topic cannot be cached
+     * @param loader computes the expansion terms
+     * @return the expansion terms of the topic
+     * @throws IOException if the expansion terms could not be computed
+     */
+    public Expansion getExpansion(String key, Loader<Expansion> loader) throws IOException {
+        if (key == null) {
+            return loader.load();
+        }
+        return get(mExpansions, key, loader);
+    }
+
+    /**
+     * @return the number of lookups of hits and expansion terms that were answered from the cache
+     */
+    public long hits() {
+        return mHits.hits() + mExpansions.hits();
+    }
+
+    /**
+     * @return the hit ratios of both caches
+     */
+    public String report() {
+        return String.format("Result cache: hits %.1f%% (%d/%d), expansions %.1f%% (%d/%d)",
+                100 * mHits.hitRatio(), mHits.hits(), mHits.hits() + mHits.misses(),
+                100 * mExpansions.hitRatio(), mExpansions.hits(), mExpansions.hits() + mExpansions.misses());
+    }
+
+    /**
+     * Writes the cache to the cache file, if one is configured
+     *
+     * @throws IOException if the file could not be written
+     */
+    public void save() throws IOException {
+        if (cCACHE_FILE == null || !mPersistent) {
+            return;
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(cCACHE_FILE)))) {
+            out.writeObject(new HashMap<>(mExpansions.entries()));
+            out.writeObject(new HashMap<>(mHits.entries()));
+        }
+    }
+
+    /**
+     * Reads the entries of a cache file. A file that cannot be read is ignored.
+     */
+    @SuppressWarnings("unchecked")
+    private void load(File file) {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            ((Map<String, Expansion>) in.readObject()).forEach(mExpansions::put);
+            ((Map<String, Hits>) in.readObject()).forEach(mHits::put);
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.out.println("WARNING! Could not read the result cache " + file + ": " + e);
+        }
+    }
+
+    private static <V> V get(LruCache<String, V> cache, String key, Loader<V> loader) throws IOException {
+        try {
+            return cache.get(key, k -> {
+                try {
+                    return loader.load();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Identifies the index a reader shows by the id, generation and version of its commit.
+     * The id is random for every newly created index, the generation and the version
+     * change with every commit and every near-real-time reopen. Readers of several
+     * indexes are identified by all of them.
+     *
+     * @return the identity, or null if it cannot be determined
+     */
+    private static String indexVersion(IndexReader indexReader) {
+        if (indexReader instanceof StandardDirectoryReader) {
+            StandardDirectoryReader directoryReader = (StandardDirectoryReader) indexReader;
+            try {
+                return StringHelper.idToString(directoryReader.getSegmentInfos().getId()) + "."
+                        + directoryReader.getIndexCommit().getGeneration() + "." + directoryReader.getVersion();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        if (indexReader instanceof DirectoryReader) {
+            // a wrapped reader does not expose its commit
+            return null;
+        }
+        List<IndexReaderContext> children = indexReader.getContext().children();
+        if (children == null) {
+            return null;
+        }
+        StringJoiner versions = new StringJoiner(",");
+        for (IndexReaderContext child : children) {
+            String version = indexVersion(child.reader());
+            if (version == null) {
+                return null;
+            }
+            versions.add(version);
+        }
+        return versions.toString();
+    }
+
+    /**
+     * Computes a value that is not cached
+     */
+    interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    /**
+     * The terms a topic's query is expanded with, together with their weights
+     */
+    static class Expansion implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final String[] mTerms;
+        final float[] mWeights;
+
+        Expansion(String[] terms, float[] weights) {
+            mTerms = terms;
+            mWeights = weights;
+        }
+
+        /**
+         * Adds the expansion terms to a query that have at least the given weight
+         */
+        void addTo(WeightedQueryBuilder queryBuilder, float minWeight) {
+            for (int i = 0; i < mTerms.length; i++) {
+                if (mWeights[i] >= minWeight) {
+                    queryBuilder.add(mTerms[i], mWeights[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * The document ids and scores of a topic's hits
+     */
+    private static class Hits implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final int[] mDocs;
+        final float[] mScores;
+
+        Hits(ScoreDoc[] hits) {
+            mDocs = new int[hits.length];
+            mScores = new float[hits.length];
+            for (int i = 0; i < hits.length; i++) {
+                mDocs[i] = hits[i].doc;
+                mScores[i] = hits[i].score;
+            }
+        }
+
+        ScoreDoc[] toScoreDocs() {
+            ScoreDoc[] hits = new ScoreDoc[mDocs.length];
+            for (int i = 0; i < hits.length; i++) {
+                hits[i] = new ScoreDoc(mDocs[i], mScores[i]);
+            }
+            return hits;
+        }
+    }
+}
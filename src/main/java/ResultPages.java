@@ -0,0 +1,108 @@
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the hits of a query page by page, down to a given depth. Every page after
+ * the first runs the query again and collects the hits that rank below the last hit of
+ * the previous page (searchAfter), so only one page of hits is held at a time, however
+ * deep the results go. The query is only built when a second page is needed, so a first
+ * page taken from the result cache costs nothing more.
+ */
+public class ResultPages implements Iterator<ScoreDoc[]> {
+    //<! The searcher the pages are retrieved with
+    private final IndexSearcher mIndexSearcher;
+    //<! Builds the query when the second page is retrieved
+    private final ResultCache.Loader<Query> mQueryLoader;
+    //<! The maximum number of hits of a page
+    private final int mPageSize;
+    //<! The number of hits that are counted exactly before non-competitive documents are skipped
+    private final int mTotalHitsThreshold;
+    //<! The query, null until it is built
+    private Query mQuery;
+    //<! The page that next() returns, null if it is not retrieved yet
+    private ScoreDoc[] mPendingPage;
+    //<! The last hit that was returned, the next page starts after it
+    private ScoreDoc mLastHit;
+    //<! The number of hits that can still be returned before the depth is reached
+    private int mRemaining;
+    //<! Whether a page came back with fewer hits than requested, so there are no more hits
+    private boolean mExhausted;
+
+    /**
+     * @param indexSearcher the searcher the pages are retrieved with
+     * @param queryLoader builds the query whose hits are iterated
+     * @param firstPage the first page of hits, retrieved with at most pageSize and depth hits
+     * @param pageSize the maximum number of hits of a page
+     * @param depth the maximum number of hits over all pages
+     * @param totalHitsThreshold the number of hits that are counted exactly before
+     *                           non-competitive documents are skipped
+     */
+    ResultPages(IndexSearcher indexSearcher, ResultCache.Loader<Query> queryLoader, ScoreDoc[] firstPage,
+                int pageSize, int depth, int totalHitsThreshold) {
+        mIndexSearcher = indexSearcher;
+        mQueryLoader = queryLoader;
+        mPageSize = pageSize;
+        mTotalHitsThreshold = totalHitsThreshold;
+        mRemaining = depth;
+        accept(firstPage, Math.min(pageSize, depth));
+    }
+
+    /**
+     * @throws UncheckedIOException if the next page could not be retrieved
+     */
+    @Override
+    public boolean hasNext() {
+        if (mPendingPage == null && !mExhausted && mRemaining > 0) {
+            try {
+                retrieveNextPage();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return mPendingPage != null && mPendingPage.length > 0;
+    }
+
+    /**
+     * @return the next page of hits, ordered by descending score
+     * @throws UncheckedIOException if the page could not be retrieved
+     */
+    @Override
+    public ScoreDoc[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ScoreDoc[] page = mPendingPage;
+        mPendingPage = null;
+        mRemaining -= page.length;
+        mLastHit = page[page.length - 1];
+        return page;
+    }
+
+    private void retrieveNextPage() throws IOException {
+        if (mQuery == null) {
+            mQuery = mQueryLoader.load();
+        }
+        long start = System.nanoTime();
+        int pageSize = Math.min(mPageSize, mRemaining);
+        //the collectors of all segments share the threshold and only collect hits ranked below the last hit
+        CollectorManager<TopScoreDocCollector, TopDocs> collectorManager = TopScoreDocCollector.createSharedManager(
+                pageSize, new FieldDoc(mLastHit.doc, mLastHit.score), mTotalHitsThreshold);
+        accept(mIndexSearcher.search(mQuery, collectorManager).scoreDocs, pageSize);
+        Metrics.histogram("query.nextPage").record(System.nanoTime() - start);
+    }
+
+    private void accept(ScoreDoc[] page, int requested) {
+        mPendingPage = page;
+        mExhausted = page.length < requested;
+    }
+}
@@ -0,0 +1,254 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.ReferenceManager;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident search service that answers queries over a local HTTP endpoint. All requests
+ * share one warm reader, which is held by a searcher manager and refreshed when a newer
+ * index commit appears. The reader of a sharded index spans all shards and is refreshed
+ * when any shard has a newer commit.
+ *
+ * GET  /search?q=...&k=10 runs a single query with query expansion and returns
+ *                         "rank docno score" lines
+ * POST /topics            runs the topics in the request body, given in the format of
+ *                         the topics file, and returns their hits in the run format
+ * GET  /document?docno=.. returns the text of the document with the DOCNO
+ */
+public class SearchServer {
+    //<! The port the server listens on
+    private static final int cPORT = Integer.getInteger("server.port", 8080);
+    //<! The number of requests that are handled concurrently
+    private static final int cREQUEST_THREADS = Integer.getInteger("server.threads",
+            Runtime.getRuntime().availableProcessors());
+    //<! Interval in seconds in which the server checks for a newer index commit
+    private static final int cREFRESH_SECONDS = Integer.getInteger("server.refreshSeconds", 60);
+    //<! The number of topics that are run before the server accepts requests
+    private static final int cWARMUP_TOPICS = Integer.getInteger("server.warmupTopics", 10);
+    //<! The number of hits returned for a single query if the request does not ask for another number
+    private static final int cDEFAULT_RESULTS = 10;
+
+    //<! Runs the topics and single queries
+    private final QueryIndex mQueryIndex;
+    //<! Extracts the topics of topic batch requests
+    private final Parser mParser;
+    //<! The pool a single search spreads the index segments over
+    private final ExecutorService mSearchExecutor;
+    //<! Holds the shared reader
+    private final ReferenceManager<IndexSearcher> mSearcherManager;
+    //<! Checks for newer index commits
+    private final ScheduledExecutorService mRefresher = Executors.newSingleThreadScheduledExecutor();
+    //<! Serves the requests
+    private HttpServer mHttpServer;
+
+    SearchServer(Parser parser, QueryIndex queryIndex, String indexLocation) throws IOException {
+        this(parser, queryIndex, searcherFactory -> ShardedIndex.openSearcherManager(indexLocation, searcherFactory));
+    }
+
+    /**
+     * @param searcherManagerOpener opens the manager of the shared reader, e.g. one that
+     *                              is refreshed from an index writer
+     */
+    SearchServer(Parser parser, QueryIndex queryIndex, SearcherManagerOpener searcherManagerOpener)
+            throws IOException {
+        mParser = parser;
+        mQueryIndex = queryIndex;
+        mSearchExecutor = queryIndex.createSearchExecutor();
+        mSearcherManager = searcherManagerOpener.open(new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                return mQueryIndex.createSearcher(reader, mSearchExecutor);
+            }
+        });
+    }
+
+    /**
+     * Warms up the searcher and starts accepting requests
+     *
+     * @param warmupTopics topics that are run before requests are accepted
+     * @throws Exception if the warm-up failed or the port could not be bound
+     */
+    public void start(Map<Integer, String[]> warmupTopics) throws Exception {
+        long start = System.nanoTime();
+        IndexSearcher indexSearcher = mSearcherManager.acquire();
+        try {
+            mQueryIndex.generateHighFreqWordList(indexSearcher.getIndexReader());
+            int warmedUp = 0;
+            for (String[] topic : warmupTopics.values()) {
+                if (warmedUp++ == cWARMUP_TOPICS) {
+                    break;
+                }
+                mQueryIndex.searchTopic(topic, indexSearcher);
+            }
+            Metrics.gauge("server.warmupMs", (System.nanoTime() - start) / 1e6);
+        } finally {
+            mSearcherManager.release(indexSearcher);
+        }
+
+        mRefresher.scheduleWithFixedDelay(this::refresh, cREFRESH_SECONDS, cREFRESH_SECONDS, TimeUnit.SECONDS);
+        mHttpServer = HttpServer.create(new InetSocketAddress("localhost", cPORT), 0);
+        mHttpServer.setExecutor(Executors.newFixedThreadPool(cREQUEST_THREADS));
+        mHttpServer.createContext("/search", exchange -> handle(exchange, this::search));
+        mHttpServer.createContext("/topics", exchange -> handle(exchange, this::searchTopics));
+        mHttpServer.createContext("/document", exchange -> handle(exchange, this::document));
+        mHttpServer.start();
+        System.out.printf("Listening on http://localhost:%d after %.1f ms%n", cPORT, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Stops accepting requests and releases the reader
+     */
+    public void stop() throws IOException {
+        if (mHttpServer != null) {
+            mHttpServer.stop(0);
+        }
+        mRefresher.shutdownNow();
+        mSearchExecutor.shutdownNow();
+        mSearcherManager.close();
+        mQueryIndex.saveResultCache();
+        Metrics.dump();
+    }
+
+    /**
+     * Swaps in a reader of the latest index commit if there is one
+     */
+    private void refresh() {
+        try {
+            if (mSearcherManager.maybeRefresh()) {
+                Metrics.counter("server.refreshes").increment();
+            }
+        } catch (IOException e) {
+            System.out.println("Error while refreshing index reader");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs a single query with query expansion
+     */
+    private void search(HttpExchange exchange, IndexSearcher indexSearcher, PrintWriter writer) throws Exception {
+        Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+        String query = parameters.get("q");
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Missing query parameter q");
+        }
+        int maxResults = parameters.containsKey("k") ? Integer.parseInt(parameters.get("k")) : cDEFAULT_RESULTS;
+        ScoreDoc[] hits = mQueryIndex.searchTopic(new String[]{query, "", ""}, indexSearcher, maxResults);
+        String[] docnos = DocnoLookup.docnos(indexSearcher.getIndexReader(), hits);
+        for (int rank = 0; rank < hits.length; rank++) {
+            writer.println((rank + 1) + " " + docnos[rank] + " " + hits[rank].score);
+        }
+    }
+
+    /**
+     * Returns the text of the document with the requested DOCNO
+     */
+    private void document(HttpExchange exchange, IndexSearcher indexSearcher, PrintWriter writer) throws Exception {
+        String docno = parseParameters(exchange.getRequestURI().getRawQuery()).get("docno");
+        if (docno == null) {
+            throw new IllegalArgumentException("Missing query parameter docno");
+        }
+        int doc = DocnoLookup.docId(indexSearcher.getIndexReader(), docno);
+        if (doc < 0) {
+            throw new IllegalArgumentException("Unknown docno " + docno);
+        }
+        writer.println(indexSearcher.doc(doc).get(FieldNames.TEXT.getName()));
+    }
+
+    /**
+     * Runs the topics of the request body
+     */
+    private void searchTopics(HttpExchange exchange, IndexSearcher indexSearcher, PrintWriter writer) throws Exception {
+        if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+            throw new IllegalArgumentException("Topics have to be posted");
+        }
+        Map<Integer, String[]> topics = mParser.createQueries(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        mQueryIndex.searchTopics(topics, indexSearcher, writer);
+    }
+
+    /**
+     * Runs a request handler with a searcher of the shared reader and sends its output
+     * together with the latency of the request. A searcher that cannot be acquired is
+     * answered with 500 like any other failure.
+     */
+    private void handle(HttpExchange exchange, RequestHandler handler) throws IOException {
+        long start = System.nanoTime();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int status = 200;
+        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8))) {
+            IndexSearcher indexSearcher = null;
+            try {
+                indexSearcher = mSearcherManager.acquire();
+                handler.handle(exchange, indexSearcher, writer);
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                writer.println(e.getMessage());
+            } catch (Exception e) {
+                status = 500;
+                writer.println(e);
+                e.printStackTrace();
+            } finally {
+                if (indexSearcher != null) {
+                    mSearcherManager.release(indexSearcher);
+                }
+            }
+        }
+
+        long latencyNanos = System.nanoTime() - start;
+        Metrics.histogram("server." + exchange.getHttpContext().getPath().substring(1)).record(latencyNanos);
+        double latencyMs = latencyNanos / 1e6;
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().set("X-Latency-Ms", String.format(Locale.ROOT, "%.3f", latencyMs));
+        exchange.sendResponseHeaders(status, body.size());
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            body.writeTo(responseBody);
+        }
+        Metrics.counter("server.status." + status).increment();
+    }
+
+    /**
+     * Decodes the parameters of a query string
+     */
+    private static Map<String, String> parseParameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Opens the manager of the shared reader with the factory of the server's searchers
+     */
+    interface SearcherManagerOpener {
+        ReferenceManager<IndexSearcher> open(SearcherFactory searcherFactory) throws IOException;
+    }
+
+    /**
+     * Handles a request with a searcher of the shared reader
+     */
+    private interface RequestHandler {
+        void handle(HttpExchange exchange, IndexSearcher indexSearcher, PrintWriter writer) throws Exception;
+    }
+}
@@ -0,0 +1,205 @@
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Opens an index that is either a single index or split into shards, one index per
+ * collection in a subdirectory named after the collection. The shards are read through
+ * one MultiReader, so a searcher computes the term and collection statistics over all
+ * shards and the scores are the same as for a single index. The directories are opened
+ * with the strategy of DirectoryFactory.
+ */
+public class ShardedIndex {
+
+    private ShardedIndex() {
+    }
+
+    /**
+     * @param indexLocation the location of the index
+     * @param collectionLocation the location of a collection
+     * @return the location of the collection's shard
+     */
+    static Path shardLocation(Path indexLocation, String collectionLocation) {
+        return indexLocation.resolve(new File(collectionLocation).getName());
+    }
+
+    /**
+     * @param indexLocation the location of the index
+     * @return whether a single, unsharded index is stored at the location
+     * @throws IOException if the location could not be read
+     */
+    static boolean isSingleIndex(Path indexLocation) throws IOException {
+        if (!Files.isDirectory(indexLocation)) {
+            return false;
+        }
+        try (Directory directory = FSDirectory.open(indexLocation)) {
+            return DirectoryReader.indexExists(directory);
+        }
+    }
+
+    /**
+     * Opens a reader of the index. Closing the reader releases the index directories.
+     *
+     * @param indexLocation the location of a single or a sharded index
+     * @return a reader of the index or of all its shards
+     * @throws IOException if the index could not be opened
+     */
+    public static IndexReader open(String indexLocation) throws IOException {
+        List<Directory> directories = openDirectories(Paths.get(indexLocation));
+        DirectoryReader[] shards = new DirectoryReader[directories.size()];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = DirectoryReader.open(directories.get(i));
+            }
+        } catch (IOException e) {
+            IOUtils.closeWhileHandlingException(shards);
+            IOUtils.closeWhileHandlingException(directories);
+            throw e;
+        }
+        return new MultiReader(shards, true) {
+            @Override
+            protected synchronized void doClose() throws IOException {
+                try {
+                    super.doClose();
+                } finally {
+                    IOUtils.close(directories);
+                }
+            }
+        };
+    }
+
+    /**
+     * Opens a manager of the searchers of the index that picks up new commits of any shard
+     *
+     * @param indexLocation the location of a single or a sharded index
+     * @param searcherFactory creates the searchers
+     * @return the searcher manager
+     * @throws IOException if the index could not be opened
+     */
+    public static ReferenceManager<IndexSearcher> openSearcherManager(String indexLocation,
+                                                                      SearcherFactory searcherFactory) throws IOException {
+        Path location = Paths.get(indexLocation);
+        if (isSingleIndex(location)) {
+            return new SearcherManager(DirectoryFactory.open(location), searcherFactory);
+        }
+        return new ShardSearcherManager(openDirectories(location), searcherFactory);
+    }
+
+    /**
+     * @return the directory of a single index, or the directories of all shards sorted by name
+     */
+    private static List<Directory> openDirectories(Path indexLocation) throws IOException {
+        if (isSingleIndex(indexLocation)) {
+            return List.of(DirectoryFactory.open(indexLocation));
+        }
+        if (!Files.isDirectory(indexLocation)) {
+            throw new IOException("No index found in " + indexLocation);
+        }
+        List<Path> shardLocations;
+        try (Stream<Path> paths = Files.list(indexLocation)) {
+            shardLocations = paths.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+        }
+        List<Directory> directories = new ArrayList<>();
+        for (Path shardLocation : shardLocations) {
+            if (isSingleIndex(shardLocation)) {
+                directories.add(DirectoryFactory.open(shardLocation));
+            }
+        }
+        if (directories.isEmpty()) {
+            throw new IOException("No index found in " + indexLocation);
+        }
+        return directories;
+    }
+
+    /**
+     * Manages searchers of a MultiReader over the shards. A refresh reopens only the shards
+     * that changed and shares the readers of the others with the previous searcher.
+     */
+    private static class ShardSearcherManager extends ReferenceManager<IndexSearcher> {
+        //<! The directories of the shards
+        private final List<Directory> mDirectories;
+        //<! Creates the searchers
+        private final SearcherFactory mSearcherFactory;
+
+        ShardSearcherManager(List<Directory> directories, SearcherFactory searcherFactory) throws IOException {
+            mDirectories = directories;
+            mSearcherFactory = searcherFactory;
+            DirectoryReader[] shards = new DirectoryReader[directories.size()];
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = DirectoryReader.open(directories.get(i));
+            }
+            current = SearcherManager.getSearcher(searcherFactory, combine(shards, shards), null);
+        }
+
+        @Override
+        protected void decRef(IndexSearcher reference) throws IOException {
+            reference.getIndexReader().decRef();
+        }
+
+        @Override
+        protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+            IndexReader previous = referenceToRefresh.getIndexReader();
+            List<IndexReaderContext> children = previous.getContext().children();
+            DirectoryReader[] shards = new DirectoryReader[children.size()];
+            DirectoryReader[] reopened = new DirectoryReader[children.size()];
+            boolean changed = false;
+            for (int i = 0; i < shards.length; i++) {
+                DirectoryReader shard = (DirectoryReader) children.get(i).reader();
+                reopened[i] = DirectoryReader.openIfChanged(shard);
+                changed |= reopened[i] != null;
+                shards[i] = reopened[i] != null ? reopened[i] : shard;
+            }
+            if (!changed) {
+                return null;
+            }
+            return SearcherManager.getSearcher(mSearcherFactory, combine(shards, reopened), previous);
+        }
+
+        @Override
+        protected boolean tryIncRef(IndexSearcher reference) {
+            return reference.getIndexReader().tryIncRef();
+        }
+
+        @Override
+        protected int getRefCount(IndexSearcher reference) {
+            return reference.getIndexReader().getRefCount();
+        }
+
+        @Override
+        protected void afterClose() throws IOException {
+            IOUtils.close(mDirectories);
+        }
+
+        /**
+         * Combines the shards into one reader that holds a reference to each of them. The
+         * reference of the caller to newly opened shards is handed over to the reader.
+         */
+        private static MultiReader combine(DirectoryReader[] shards, DirectoryReader[] opened) throws IOException {
+            MultiReader reader = new MultiReader(shards, false);
+            for (DirectoryReader shard : opened) {
+                if (shard != null) {
+                    shard.decRef();
+                }
+            }
+            return reader;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArrayMap;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes the high frequency stop word list from the raw collections before the index
+ * is built, so the index analyzer removes the stop words in the first indexing pass.
+ * The documents are analyzed with the index analyzer without high frequency stop
+ * words, which yields the terms the index would hold. Every thread counts terms in a
+ * Misra-Gries summary of bounded size, and the summaries are merged at the end. A term
+ * that occurs more than (tokens / cCOUNTERS) times is always found, and its count is
+ * underestimated by at most that much.
+ */
+public class StopListBuilder {
+    //<! The location where the file with the high freq words is stored
+    private static final String cFREQ_LIST_LOCATION = "./freqlist.txt";
+    //<! The number of most frequent terms that are considered, as in QueryIndex.generateHighFreqWordList
+    private static final int cMAX_TERMS = 2500;
+    //<! The number of occurrences above which a term is a stop word, as in QueryIndex.generateHighFreqWordList
+    private static final long cMIN_FREQUENCY = 180000;
+    //<! The number of terms every thread counts. More counters make the counts more exact
+    private static final int cCOUNTERS = Integer.getInteger("stoplist.counters", 100000);
+    //<! The share of the collection files that are analyzed, the counts are scaled up accordingly
+    private static final double cSAMPLE_RATE = Double.parseDouble(System.getProperty("stoplist.sampleRate", "1"));
+    //<! The number of threads that analyze the collection files
+    private static final int cTHREADS = Integer.getInteger("stoplist.threads", Runtime.getRuntime().availableProcessors());
+
+    //<! Identifier of the analyzer whose index analysis chain is used
+    private final String mAnalyzerString;
+
+    StopListBuilder(String analyzer) {
+        mAnalyzerString = analyzer;
+    }
+
+    /**
+     * Writes the stop word list if there is none yet and only the custom analyzers, which
+     * use it, are selected
+     *
+     * @param locations the directories of the collections
+     * @throws IOException if a collection file could not be read or the list could not be written
+     */
+    public void buildIfMissing(String[] locations) throws IOException {
+        if (!mAnalyzerString.equalsIgnoreCase("custom") || new File(cFREQ_LIST_LOCATION).exists()) {
+            return;
+        }
+        build(locations);
+    }
+
+    /**
+     * Counts the terms of the collections and writes the high frequency stop word list.
+     * The analyzers are rebuilt with the new list on their next use.
+     *
+     * @param locations the directories of the collections
+     * @throws IOException if a collection file could not be read or the list could not be written
+     */
+    public void build(String[] locations) throws IOException {
+        long start = System.nanoTime();
+        List<File> files = sample(locations);
+        Analyzer analyzer = AnalyzerSimilarityFactory.createAnalyzer(mAnalyzerString, "index",
+                new CharArraySet(0, true));
+        LongAdder documents = new LongAdder();
+        LongAdder tokens = new LongAdder();
+        AtomicInteger nextFile = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(cTHREADS);
+        List<Future<FrequencySummary>> summaries = new ArrayList<>();
+        for (int i = 0; i < cTHREADS; i++) {
+            summaries.add(executor.submit(() -> {
+                FrequencySummary summary = new FrequencySummary(cCOUNTERS);
+                int file;
+                while ((file = nextFile.getAndIncrement()) < files.size()) {
+                    // only the text is analyzed, so no lucene documents are built
+                    Parser.parseFields(files.get(file), (docno, text) -> {
+                        tokens.add(count(analyzer, text, summary));
+                        documents.increment();
+                    });
+                }
+                return summary;
+            }));
+        }
+        FrequencySummary merged = new FrequencySummary(cCOUNTERS);
+        try {
+            for (Future<FrequencySummary> summary : summaries) {
+                merged.merge(summary.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting the terms", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            analyzer.close();
+        }
+
+        List<String> stopWords = merged.mostFrequent(cMAX_TERMS, (long) (cMIN_FREQUENCY * cSAMPLE_RATE));
+        try (PrintWriter writer = new PrintWriter(cFREQ_LIST_LOCATION, StandardCharsets.UTF_8)) {
+            stopWords.forEach(writer::println);
+        }
+        AnalyzerRegistry.reload();
+        System.out.printf("Computed %d high frequency stop words from %d documents (%d tokens, %d files) in %.1f s%n",
+                stopWords.size(), documents.sum(), tokens.sum(), files.size(), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Selects every (1 / cSAMPLE_RATE)-th collection file. The files are sorted, so the
+     * same files are selected in every run.
+     */
+    private static List<File> sample(String[] locations) {
+        List<File> files = new ArrayList<>();
+        for (String location : locations) {
+            files.addAll(Parser.getFilesFromDir(new File(location)));
+        }
+        files.sort(Comparator.comparing(File::getPath));
+        if (cSAMPLE_RATE >= 1) {
+            return files;
+        }
+        List<File> sample = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            if ((long) ((i + 1) * cSAMPLE_RATE) > (long) (i * cSAMPLE_RATE)) {
+                sample.add(files.get(i));
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Analyzes a text and counts its terms
+     *
+     * @return the number of tokens of the text
+     */
+    private static long count(Analyzer analyzer, String text, FrequencySummary summary) throws IOException {
+        long tokens = 0;
+        try (TokenStream stream = analyzer.tokenStream(FieldNames.TEXT.getName(), new StringReader(text))) {
+            CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                summary.add(termAttribute.buffer(), termAttribute.length());
+                tokens++;
+            }
+            stream.end();
+        }
+        return tokens;
+    }
+
+    /**
+     * Misra-Gries summary of the term frequencies that holds at most twice its capacity
+     * of terms. When it is full, the count of the (capacity + 1)-th most frequent term is
+     * subtracted from all counts and the terms whose count drops to zero are forgotten.
+     * Terms are looked up by their characters, so counting a known term allocates nothing.
+     */
+    private static class FrequencySummary {
+        //<! The number of terms that are kept when the summary is pruned
+        private final int mCapacity;
+        //<! The counts of the terms
+        private CharArrayMap<long[]> mCounts = new CharArrayMap<>(16, false);
+
+        FrequencySummary(int capacity) {
+            mCapacity = capacity;
+        }
+
+        void add(char[] term, int length) {
+            long[] count = mCounts.get(term, 0, length);
+            if (count != null) {
+                count[0]++;
+                return;
+            }
+            mCounts.put(Arrays.copyOf(term, length), new long[]{1});
+            if (mCounts.size() > 2 * mCapacity) {
+                prune();
+            }
+        }
+
+        /**
+         * Adds the counts of another summary. The sum of two summaries is a summary of the
+         * combined text with the combined error bound.
+         */
+        void merge(FrequencySummary other) {
+            for (Map.Entry<Object, long[]> entry : other.mCounts.entrySet()) {
+                char[] term = (char[]) entry.getKey();
+                long[] count = mCounts.get(term, 0, term.length);
+                if (count != null) {
+                    count[0] += entry.getValue()[0];
+                } else {
+                    mCounts.put(term, new long[]{entry.getValue()[0]});
+                }
+            }
+            if (mCounts.size() > mCapacity) {
+                prune();
+            }
+        }
+
+        /**
+         * @param maxTerms the maximum number of terms
+         * @param minCount the count a term has to exceed
+         * @return the most frequent terms, most frequent first
+         */
+        List<String> mostFrequent(int maxTerms, long minCount) {
+            List<Map.Entry<Object, long[]>> entries = new ArrayList<>(mCounts.entrySet());
+            entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+            List<String> terms = new ArrayList<>();
+            for (Map.Entry<Object, long[]> entry : entries.subList(0, Math.min(maxTerms, entries.size()))) {
+                if (entry.getValue()[0] > minCount) {
+                    terms.add(new String((char[]) entry.getKey()));
+                }
+            }
+            return terms;
+        }
+
+        /**
+         * Keeps at most mCapacity terms by subtracting the count of the (mCapacity + 1)-th
+         * most frequent term from all counts
+         */
+        private void prune() {
+            long[] counts = new long[mCounts.size()];
+            int i = 0;
+            for (long[] count : mCounts.values()) {
+                counts[i++] = count[0];
+            }
+            Arrays.sort(counts);
+            long threshold = counts[counts.length - mCapacity - 1];
+            CharArrayMap<long[]> pruned = new CharArrayMap<>(2 * mCapacity, false);
+            for (Map.Entry<Object, long[]> entry : mCounts.entrySet()) {
+                long count = entry.getValue()[0] - threshold;
+                if (count > 0) {
+                    entry.getValue()[0] = count;
+                    pruned.put((char[]) entry.getKey(), entry.getValue());
+                }
+            }
+            mCounts = pruned;
+        }
+    }
+}
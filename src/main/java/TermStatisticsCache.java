@@ -0,0 +1,140 @@
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the document frequencies of the text field terms for one index reader, so
+ * the feedback weighting of all topics looks every term up only once. There is one
+ * cache per reader. It is dropped when the reader is closed, so a refreshed reader
+ * never sees statistics of an older index version. A reader that cannot tell when it
+ * is closed gets a new, empty cache on every use, which is reported once per reader.
+ */
+public class TermStatisticsCache {
+    //<! The maximum number of terms whose document frequency is cached per reader
+    private static final int cMAX_TERMS = Integer.getInteger("feedback.termCacheSize", 100000);
+    //<! The caches of all open readers, by reader cache key or by the list of the shard cache keys
+    private static final Map<Object, TermStatisticsCache> cCACHES = new ConcurrentHashMap<>();
+    //<! The readers whose statistics are not cached and that were already reported
+    private static final Set<IndexReader> cUNCACHED_READERS = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    //<! The reader the statistics are read from
+    private final IndexReader mIndexReader;
+    //<! Number of documents that have a text field
+    private final long mDocCount;
+    //<! The cached document frequencies
+    private final LruCache<String, Integer> mDocFreqs = new LruCache<>(cMAX_TERMS);
+
+    private TermStatisticsCache(IndexReader indexReader) throws IOException {
+        mIndexReader = indexReader;
+        mDocCount = indexReader.getDocCount(FieldNames.TEXT.getName());
+    }
+
+    /**
+     * Returns the cache of a reader and creates it on first use
+     *
+     * @param indexReader the reader the statistics are read from
+     * @return the cache of the reader
+     * @throws IOException if the collection statistics could not be read
+     */
+    public static TermStatisticsCache forReader(IndexReader indexReader) throws IOException {
+        IndexReader.CacheHelper cacheHelper = indexReader.getReaderCacheHelper();
+        if (cacheHelper != null) {
+            return forReader(indexReader, cacheHelper.getKey(), List.of(cacheHelper));
+        }
+        // a reader over index shards has no cache key of its own, but its statistics only change with its shards
+        List<IndexReader.CacheKey> shardKeys = new ArrayList<>();
+        List<IndexReader.CacheHelper> shardHelpers = new ArrayList<>();
+        for (IndexReaderContext shard : indexReader.getContext().children()) {
+            IndexReader.CacheHelper shardHelper = shard.reader().getReaderCacheHelper();
+            if (shardHelper == null) {
+                return uncached(indexReader, "because a shard has no cache key");
+            }
+            shardKeys.add(shardHelper.getKey());
+            shardHelpers.add(shardHelper);
+        }
+        if (shardHelpers.isEmpty()) {
+            return uncached(indexReader, "because it has neither a cache key nor shards");
+        }
+        return forReader(indexReader, shardKeys, shardHelpers);
+    }
+
+    /**
+     * Returns a cache that only lives as long as its caller holds it, because the
+     * reader cannot be told apart from a refreshed one
+     *
+     * @param reason why the reader cannot be cached
+     */
+    private static TermStatisticsCache uncached(IndexReader indexReader, String reason) throws IOException {
+        if (cUNCACHED_READERS.add(indexReader)) {
+            System.out.println("WARNING! The term statistics of " + indexReader + " are not cached, " + reason);
+        }
+        return new TermStatisticsCache(indexReader);
+    }
+
+    /**
+     * Returns the cache stored under a key and creates it on first use. The cache is
+     * dropped as soon as one of the readers it depends on is closed.
+     */
+    private static TermStatisticsCache forReader(IndexReader indexReader, Object cacheKey,
+                                                 List<IndexReader.CacheHelper> cacheHelpers) throws IOException {
+        try {
+            return cCACHES.computeIfAbsent(cacheKey, key -> {
+                try {
+                    for (IndexReader.CacheHelper cacheHelper : cacheHelpers) {
+                        cacheHelper.addClosedListener(closedKey -> cCACHES.remove(key));
+                    }
+                    return new TermStatisticsCache(indexReader);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return the number of documents that have a text field
+     */
+    public long docCount() {
+        return mDocCount;
+    }
+
+    /**
+     * @param term a term of the text field
+     * @return the number of documents that contain the term
+     * @throws IOException if the index could not be read
+     */
+    public int docFreq(String term) throws IOException {
+        try {
+            return mDocFreqs.get(term, key -> {
+                try {
+                    return mIndexReader.docFreq(new Term(FieldNames.TEXT.getName(), key));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public long hits() {
+        return mDocFreqs.hits();
+    }
+
+    public long misses() {
+        return mDocFreqs.misses();
+    }
+}
@@ -0,0 +1,80 @@
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps an analyzer and measures how much time the index writer spends in analysis.
+ * Timing every token would slow analysis down noticeably, so only every
+ * cSAMPLE_RATE-th token stream is timed and its time is scaled up. The estimate is
+ * added to the counter "indexing.analysisNanos".
+ */
+public class TimingAnalyzer extends AnalyzerWrapper {
+    //<! Every this many token streams, one is timed
+    private static final int cSAMPLE_RATE = 16;
+    //<! Estimated time spent in analysis
+    private static final LongAdder cANALYSIS_NANOS = Metrics.counter("indexing.analysisNanos");
+
+    //<! The analyzer that does the analysis
+    private final Analyzer mAnalyzer;
+
+    TimingAnalyzer(Analyzer analyzer) {
+        super(Analyzer.PER_FIELD_REUSE_STRATEGY);
+        mAnalyzer = analyzer;
+    }
+
+    @Override
+    protected Analyzer getWrappedAnalyzer(String fieldName) {
+        return mAnalyzer;
+    }
+
+    @Override
+    protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+        return new TokenStreamComponents(components.getSource(), new TimingFilter(components.getTokenStream()));
+    }
+
+    /**
+     * Times the tokens of every cSAMPLE_RATE-th stream it passes on
+     */
+    private static class TimingFilter extends TokenFilter {
+        //<! Number of streams this filter passed on
+        private long mStreams;
+        //<! Whether the current stream is timed
+        private boolean mSampled;
+        //<! Time spent on the tokens of the current stream
+        private long mNanos;
+
+        TimingFilter(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            mSampled = mStreams++ % cSAMPLE_RATE == 0;
+            mNanos = 0;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!mSampled) {
+                return input.incrementToken();
+            }
+            long start = System.nanoTime();
+            boolean hasToken = input.incrementToken();
+            mNanos += System.nanoTime() - start;
+            return hasToken;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            if (mSampled) {
+                cANALYSIS_NANOS.add(mNanos * cSAMPLE_RATE);
+            }
+        }
+    }
+}
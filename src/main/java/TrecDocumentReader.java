@@ -0,0 +1,457 @@
+import org.apache.lucene.analysis.CharArrayMap;
+import org.jsoup.nodes.Entities;
+import org.jsoup.parser.Tag;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for TREC SGML collection files. The file is memory-mapped and the
+ * DOC, DOCNO and TEXT boundaries are found by scanning the bytes, so neither a Scanner
+ * nor a DOM is built. The extracted field values match the ones of the Jsoup based
+ * Parser.formatDocument: markup is dropped, entities are decoded, whitespace is
+ * collapsed and multiple TEXT elements are joined by a space. Tag names are matched on
+ * the bytes, and entities and non-ASCII text are decoded into reused buffers, so the
+ * markup of a document allocates nothing.
+ */
+public class TrecDocumentReader {
+    //<! Separator of the documents within a collection file
+    private static final byte[] cDOCUMENT_SEPARATOR = "<DOC>".getBytes(StandardCharsets.US_ASCII);
+    //<! Longest entity name that is looked up when decoding character references
+    private static final int cMAX_ENTITY_LENGTH = 32;
+    //<! The block elements of Jsoup 1.14, whose text Jsoup separates by whitespace
+    private static final String[] cBLOCK_TAGS = {"html", "head", "body", "frameset", "script", "noscript",
+            "style", "meta", "link", "title", "frame", "noframes", "section", "nav", "aside", "hgroup", "header",
+            "footer", "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "pre", "div", "blockquote", "hr",
+            "address", "figure", "figcaption", "form", "fieldset", "ins", "del", "dl", "dt", "dd", "li", "table",
+            "caption", "thead", "tfoot", "tbody", "colgroup", "col", "tr", "th", "td", "video", "audio", "canvas",
+            "details", "menu", "plaintext", "template", "article", "main", "svg", "math", "center", "dir",
+            "applet", "marquee", "listing"};
+    //<! The lower case names of the tags that separate text, by the length of the name
+    private static final byte[][][] cSEPARATING_TAGS = separatingTags();
+    //<! The maximum number of entity names whose decoded text is kept per thread
+    private static final int cMAX_CACHED_ENTITIES = 1024;
+    //<! The decoded named references per thread: the text if terminated by ';' and if not, null if unknown
+    private static final ThreadLocal<CharArrayMap<String[]>> cENTITIES =
+            ThreadLocal.withInitial(() -> new CharArrayMap<>(64, false));
+
+    //<! The mapped collection file
+    private final MappedByteBuffer mBuffer;
+    //<! Receives the text of the DOCNO elements of the current document
+    private final StringBuilder mDocno = new StringBuilder();
+    //<! Receives the text of the TEXT elements of the current document
+    private final StringBuilder mText = new StringBuilder();
+    //<! The builder the text of the current element is appended to, null outside of DOCNO and TEXT
+    private StringBuilder mTarget;
+    //<! Whether whitespace was skipped since the last character that was appended to mTarget
+    private boolean mPendingSpace;
+    //<! View of the mapped file that the runs of non-ASCII bytes are decoded from
+    private final ByteBuffer mNonAscii;
+    //<! Decodes the non-ASCII bytes with the platform charset and replaces malformed input
+    private final CharsetDecoder mDecoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    //<! Receives the decoded non-ASCII characters
+    private final CharBuffer mDecoded = CharBuffer.allocate(256);
+    //<! Receives the name of an entity to look it up
+    private final char[] mEntityName = new char[cMAX_ENTITY_LENGTH];
+    //<! The decoded named references of the thread
+    private final CharArrayMap<String[]> mEntities = cENTITIES.get();
+
+    private TrecDocumentReader(MappedByteBuffer buffer) {
+        mBuffer = buffer;
+        mNonAscii = buffer.duplicate();
+    }
+
+    /**
+     * Splits a collection file into lucene documents
+     * @param file the collection file to be read
+     * @param consumer receives every document of the file
+     * @throws IOException if the file could not be mapped
+     * @throws InterruptedException if the thread was interrupted while handing over a document
+     */
+    static void read(File file, Parser.DocumentConsumer consumer) throws IOException, InterruptedException {
+        readFields(file, (docno, text) -> consumer.accept(Parser.createDocument(docno, text)));
+    }
+
+    /**
+     * Splits a collection file into the DOCNO and TEXT of its documents, without building
+     * lucene documents
+     * @param file the collection file to be read
+     * @param consumer receives DOCNO and TEXT of every document of the file
+     * @throws IOException if the file could not be mapped
+     * @throws InterruptedException if the thread was interrupted while handing over a document
+     */
+    static void readFields(File file, Parser.FieldConsumer consumer) throws IOException, InterruptedException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        TrecDocumentReader reader = new TrecDocumentReader(buffer);
+        int limit = buffer.limit();
+        int start = 0;
+        // like the Scanner in Parser.parseFile, every non-empty range between two separators is a document
+        while (start < limit) {
+            int separator = reader.indexOf(cDOCUMENT_SEPARATOR, start, limit);
+            int end = separator < 0 ? limit : separator;
+            if (end > start) {
+                reader.readDocument(start, end);
+                consumer.accept(reader.mDocno.toString(), reader.mText.toString());
+            }
+            start = separator < 0 ? limit : separator + cDOCUMENT_SEPARATOR.length;
+        }
+    }
+
+    /**
+     * Extracts DOCNO and TEXT of the document in the given byte range
+     */
+    private void readDocument(int start, int end) {
+        mDocno.setLength(0);
+        mText.setLength(0);
+        mTarget = null;
+        int pos = start;
+        while (pos < end) {
+            byte b = mBuffer.get(pos);
+            if (b == '<') {
+                pos = readMarkup(pos, end);
+            } else if (mTarget == null) {
+                pos++;
+            } else if (b == '&') {
+                pos = readEntity(pos, end);
+            } else if (b >= 0) {
+                appendChar((char) b);
+                pos++;
+            } else {
+                pos = readNonAscii(pos, end);
+            }
+        }
+    }
+
+    /**
+     * Handles a tag, comment or declaration starting at pos. A '<' that does not start
+     * markup is treated as text.
+     *
+     * @return the position after the markup
+     */
+    private int readMarkup(int pos, int end) {
+        int next = pos + 1;
+        if (next >= end) {
+            appendText('<');
+            return end;
+        }
+        byte b = mBuffer.get(next);
+        if (b == '!' && startsWith("!--", next, end)) {
+            int close = indexOf("-->".getBytes(StandardCharsets.US_ASCII), next + 3, end);
+            return close < 0 ? end : close + 3;
+        }
+        boolean closing = b == '/';
+        int nameStart = closing ? next + 1 : next;
+        if (b == '!' || b == '?') {
+            return skipTag(next, end);
+        }
+        if (closing && (nameStart >= end || !isLetter(mBuffer.get(nameStart)))) {
+            // an end tag without a name is dropped up to the next '>'
+            return skipTag(nameStart, end);
+        }
+        if (nameStart >= end || !isLetter(mBuffer.get(nameStart))) {
+            appendText('<');
+            return next;
+        }
+        int nameEnd = nameStart;
+        while (nameEnd < end && isNameChar(mBuffer.get(nameEnd))) {
+            nameEnd++;
+        }
+
+        if (nameEquals("text", nameStart, nameEnd)) {
+            enterElement(closing ? null : mText);
+        } else if (nameEquals("docno", nameStart, nameEnd)) {
+            enterElement(closing ? null : mDocno);
+        } else if (mTarget != null && separatesText(nameStart, nameEnd)) {
+            mPendingSpace = true;
+        }
+        return skipTag(nameEnd, end);
+    }
+
+    /**
+     * Starts or ends a DOCNO or TEXT element. The text of consecutive elements is
+     * separated by a space.
+     */
+    private void enterElement(StringBuilder target) {
+        mTarget = target;
+        mPendingSpace = true;
+    }
+
+    /**
+     * Checks whether Jsoup separates the text around a tag by whitespace, which it does
+     * for block elements and line breaks
+     */
+    private boolean separatesText(int nameStart, int nameEnd) {
+        int length = nameEnd - nameStart;
+        if (length >= cSEPARATING_TAGS.length) {
+            return false;
+        }
+        for (byte[] name : cSEPARATING_TAGS[length]) {
+            if (nameEquals(name, nameStart)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the names of the block elements that Jsoup knows and of the line break, by length
+     */
+    private static byte[][][] separatingTags() {
+        int maxLength = 0;
+        for (String name : cBLOCK_TAGS) {
+            maxLength = Math.max(maxLength, name.length());
+        }
+        List<List<byte[]>> byLength = new ArrayList<>();
+        for (int length = 0; length <= maxLength; length++) {
+            byLength.add(new ArrayList<>());
+        }
+        byLength.get(2).add("br".getBytes(StandardCharsets.US_ASCII));
+        for (String name : cBLOCK_TAGS) {
+            if (Tag.isKnownTag(name) && Tag.valueOf(name).isBlock()) {
+                byLength.get(name.length()).add(name.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        byte[][][] tags = new byte[byLength.size()][][];
+        for (int length = 0; length < tags.length; length++) {
+            tags[length] = byLength.get(length).toArray(new byte[0][]);
+        }
+        return tags;
+    }
+
+    /**
+     * Decodes a character reference starting at pos. References that cannot be
+     * resolved are kept as text.
+     *
+     * @return the position after the reference
+     */
+    private int readEntity(int pos, int end) {
+        int nameStart = pos + 1;
+        int nameEnd = nameStart;
+        while (nameEnd < end && nameEnd - nameStart < cMAX_ENTITY_LENGTH && isNameChar(mBuffer.get(nameEnd))) {
+            nameEnd++;
+        }
+        boolean terminated = nameEnd < end && mBuffer.get(nameEnd) == ';';
+        if (nameEnd > nameStart && (mBuffer.get(nameStart) == '#'
+                ? appendNumericReference(nameStart, nameEnd) : appendNamedReference(nameStart, nameEnd, terminated))) {
+            return terminated ? nameEnd + 1 : nameEnd;
+        }
+        appendText('&');
+        return pos + 1;
+    }
+
+    /**
+     * Appends the character of a numeric reference
+     *
+     * @return false if the reference has no valid digits and nothing was appended
+     */
+    private boolean appendNumericReference(int nameStart, int nameEnd) {
+        boolean hex = nameEnd > nameStart + 1 && (mBuffer.get(nameStart + 1) | 0x20) == 'x';
+        int digitsStart = hex ? nameStart + 2 : nameStart + 1;
+        int codePoint = 0;
+        for (int i = digitsStart; i < nameEnd; i++) {
+            int digit = Character.digit(mBuffer.get(i), hex ? 16 : 10);
+            if (digit < 0) {
+                return false;
+            }
+            codePoint = Math.min(codePoint * (hex ? 16 : 10) + digit, Character.MAX_CODE_POINT + 1);
+        }
+        if (digitsStart == nameEnd) {
+            return false;
+        }
+        if (!Character.isValidCodePoint(codePoint)) {
+            appendText('\uFFFD');
+        } else if (Character.isBmpCodePoint(codePoint)) {
+            appendText((char) codePoint);
+        } else {
+            appendText(Character.highSurrogate(codePoint));
+            appendText(Character.lowSurrogate(codePoint));
+        }
+        return true;
+    }
+
+    /**
+     * Appends the characters of a named reference. The names are looked up in Jsoup once
+     * per thread, and later occurrences are found by their characters.
+     *
+     * @return false if the name is unknown and nothing was appended
+     */
+    private boolean appendNamedReference(int nameStart, int nameEnd, boolean terminated) {
+        int length = nameEnd - nameStart;
+        for (int i = 0; i < length; i++) {
+            mEntityName[i] = (char) mBuffer.get(nameStart + i);
+        }
+        String[] decoded = mEntities.get(mEntityName, 0, length);
+        if (decoded == null) {
+            String name = new String(mEntityName, 0, length);
+            decoded = new String[]{Entities.isNamedEntity(name) ? Entities.getByName(name) : null,
+                    Entities.isBaseNamedEntity(name) ? Entities.getByName(name) : null};
+            if (mEntities.size() < cMAX_CACHED_ENTITIES) {
+                mEntities.put(name, decoded);
+            }
+        }
+        String text = decoded[terminated ? 0 : 1];
+        if (text == null) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            appendText(text.charAt(i));
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a run of non-ASCII bytes with the platform charset like the Scanner of
+     * the Jsoup based parser. Unlike the Scanner, which stops reading the file at the
+     * first malformed byte, malformed input is replaced.
+     *
+     * @return the position after the run
+     */
+    private int readNonAscii(int pos, int end) {
+        int runEnd = pos;
+        while (runEnd < end && mBuffer.get(runEnd) < 0) {
+            runEnd++;
+        }
+        mNonAscii.limit(runEnd).position(pos);
+        mDecoder.reset();
+        // a long run is decoded in chunks of the size of mDecoded
+        while (mDecoder.decode(mNonAscii, mDecoded, true).isOverflow()) {
+            appendDecoded();
+        }
+        while (mDecoder.flush(mDecoded).isOverflow()) {
+            appendDecoded();
+        }
+        appendDecoded();
+        return runEnd;
+    }
+
+    /**
+     * Appends the characters in mDecoded and empties it
+     */
+    private void appendDecoded() {
+        mDecoded.flip();
+        while (mDecoded.hasRemaining()) {
+            appendText(mDecoded.get());
+        }
+        mDecoded.clear();
+    }
+
+    /**
+     * Appends a character to the current element if there is one
+     */
+    private void appendText(char c) {
+        if (mTarget != null) {
+            appendChar(c);
+        }
+    }
+
+    /**
+     * Appends a character to the current element and collapses whitespace like
+     * Jsoup's Element.text()
+     */
+    private void appendChar(char c) {
+        if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160) {
+            mPendingSpace = true;
+        } else if (c != 173 && c != 8203) {
+            if (mPendingSpace && mTarget.length() > 0) {
+                mTarget.append(' ');
+            }
+            mTarget.append(c);
+            mPendingSpace = false;
+        }
+    }
+
+    /**
+     * @return the position after the '>' that closes the tag
+     */
+    private int skipTag(int pos, int end) {
+        while (pos < end && mBuffer.get(pos) != '>') {
+            pos++;
+        }
+        return Math.min(pos + 1, end);
+    }
+
+    /**
+     * @return the position of the first occurrence of pattern in [from, to) or -1
+     */
+    private int indexOf(byte[] pattern, int from, int to) {
+        int last = to - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (mBuffer.get(i) == pattern[0] && startsWith(pattern, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(byte[] pattern, int pos) {
+        for (int j = 1; j < pattern.length; j++) {
+            if (mBuffer.get(pos + j) != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(String prefix, int pos, int end) {
+        if (pos + prefix.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (mBuffer.get(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares a tag name case-insensitively with a lower case name
+     */
+    private boolean nameEquals(String name, int nameStart, int nameEnd) {
+        if (nameEnd - nameStart != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if ((mBuffer.get(nameStart + i) | 0x20) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares a tag name of the same length case-insensitively with a lower case name
+     */
+    private boolean nameEquals(byte[] name, int nameStart) {
+        for (int i = 0; i < name.length; i++) {
+            if ((mBuffer.get(nameStart + i) | 0x20) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean isNameChar(byte b) {
+        return isLetter(b) || (b >= '0' && b <= '9') || b == '#';
+    }
+}
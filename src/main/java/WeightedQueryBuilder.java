@@ -0,0 +1,62 @@
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.util.List;
+
+/**
+ * Builds a disjunction of weighted terms directly from analyzed terms, so the terms
+ * are neither written into a query string nor parsed and analyzed again. The builder
+ * can be extended after a query was built, e.g. to add the expansion terms to the
+ * clauses of the first pass.
+ */
+public class WeightedQueryBuilder {
+    //<! The field all terms are searched in
+    private final String mField;
+    //<! Collects the clauses of the query
+    private final BooleanQuery.Builder mBuilder = new BooleanQuery.Builder();
+
+    WeightedQueryBuilder(String field) {
+        mField = field;
+    }
+
+    /**
+     * Adds an optional clause for a term
+     *
+     * @param term the analyzed term
+     * @param boost the weight of the term
+     * @return this builder
+     */
+    public WeightedQueryBuilder add(String term, float boost) {
+        Query query = new TermQuery(new Term(mField, term));
+        if (boost != 1F) {
+            query = new BoostQuery(query, boost);
+        }
+        mBuilder.add(query, BooleanClause.Occur.SHOULD);
+        return this;
+    }
+
+    /**
+     * Adds an optional clause for each term
+     *
+     * @param terms the analyzed terms
+     * @param boost the weight of the terms
+     * @return this builder
+     */
+    public WeightedQueryBuilder add(List<String> terms, float boost) {
+        for (String term : terms) {
+            add(term, boost);
+        }
+        return this;
+    }
+
+    /**
+     * @return a query with all clauses added so far. The builder can still be extended.
+     */
+    public BooleanQuery build() {
+        return mBuilder.build();
+    }
+}
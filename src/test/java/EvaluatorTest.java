@@ -0,0 +1,59 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.URISyntaxException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the measures of the Evaluator against values computed the way trec_eval computes
+ * them. The fixture has a topic whose judged documents are all non-relevant, retrieved
+ * DOCNOs that are not judged, a topic that is not judged at all and two documents with
+ * the same score on both sides of the P_5 cutoff. trec_eval ranks the tie by descending
+ * DOCNO, so Z1 takes rank 5 and the relevant D1 rank 6.
+ */
+class EvaluatorTest {
+    //<! The tolerance of the compared values, trec_eval prints four decimals
+    private static final double cDELTA = 1e-4;
+
+    @Test
+    void scoresTheFixtureLikeTrecEval() throws Exception {
+        Evaluator.Run run = Evaluator.load(fixture("qrels")).readRun(fixture("run"));
+
+        // topic 403 is not judged and is left out, topic 402 has no relevant documents and counts with 0
+        assertEquals(2, run.topics());
+        assertEquals(8, run.value("num_ret"), cDELTA);
+        assertEquals(4, run.value("num_rel"), cDELTA);
+        assertEquals(3, run.value("num_rel_ret"), cDELTA);
+        // topic 401 ranks D2 X9 D4 D3 Z1 D1, AP = (1/1 + 2/3 + 3/6) / 4
+        assertEquals((1 + 2 / 3.0 + 3 / 6.0) / 4 / 2, run.value("map"), cDELTA);
+        assertEquals(2 / 5.0 / 2, run.value("P_5"), cDELTA);
+        assertEquals(3 / 10.0 / 2, run.value("P_10"), cDELTA);
+        assertEquals(3 / 20.0 / 2, run.value("P_20"), cDELTA);
+        double dcg = 2 + 1 / log2(4) + 1 / log2(7);
+        double idealDcg = 2 + 1 / log2(3) + 1 / log2(4) + 1 / log2(5);
+        assertEquals(dcg / idealDcg / 2, run.value("ndcg_cut_10"), cDELTA);
+        assertEquals(dcg / idealDcg / 2, run.value("ndcg_cut_20"), cDELTA);
+        assertEquals(3 / 4.0 / 2, run.value("recall_1000"), cDELTA);
+    }
+
+    @Test
+    void scoresTheRankingsOfTheRepositoryLikeTrecEval() throws Exception {
+        Evaluator.Run run = Evaluator.load("qrels-assignment2.part1").readRun("rankings.txt");
+
+        assertEquals(25, run.topics());
+        assertEquals(0.3536, run.value("map"), cDELTA);
+        assertEquals(0.6720, run.value("P_5"), cDELTA);
+        assertEquals(0.6000, run.value("P_10"), cDELTA);
+        assertEquals(0.6244, run.value("ndcg_cut_10"), cDELTA);
+        assertEquals(0.7726, run.value("recall_1000"), cDELTA);
+    }
+
+    private static double log2(double value) {
+        return Math.log(value) / Math.log(2);
+    }
+
+    private static String fixture(String name) throws URISyntaxException {
+        return new File(EvaluatorTest.class.getResource("/eval/" + name).toURI()).getPath();
+    }
+}
@@ -0,0 +1,69 @@
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Checks the selection of the expansion terms when terms of equal weight lie across the
+ * limit: the ties are broken by the term text, so the selection is the same whatever
+ * order the terms were added in, and a tied term is only dropped when the limit is full.
+ */
+class ExpansionTermsTest {
+    //<! The candidate terms, four of them tie with the weight 2
+    private static final String[] cTERMS = {"alpha", "zeta", "delta", "beta", "gamma", "omega"};
+    //<! The weights of the candidate terms
+    private static final double[] cWEIGHTS = {3, 2, 2, 2, 2, 1};
+
+    @Test
+    void breaksTiesAcrossTheLimitByTheTermText() {
+        for (List<Integer> order : insertionOrders()) {
+            ResultCache.Expansion expansion = expansionTerms(order).top(3, 1.5f);
+
+            assertArrayEquals(new String[]{"alpha", "beta", "delta"}, expansion.mTerms, "added in order " + order);
+            assertArrayEquals(new float[]{1.5f, 1f, 1f}, expansion.mWeights, "added in order " + order);
+        }
+    }
+
+    @Test
+    void keepsAllTiedTermsThatFitTheLimit() {
+        for (List<Integer> order : insertionOrders()) {
+            ResultCache.Expansion expansion = expansionTerms(order).top(5, 1.5f);
+
+            assertArrayEquals(new String[]{"alpha", "beta", "delta", "gamma", "zeta"}, expansion.mTerms,
+                    "added in order " + order);
+        }
+    }
+
+    /**
+     * @return the order of the terms as declared, reversed and a few shuffles
+     */
+    private static List<List<Integer>> insertionOrders() {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < cTERMS.length; i++) {
+            order.add(i);
+        }
+        List<List<Integer>> orders = new ArrayList<>();
+        orders.add(new ArrayList<>(order));
+        Collections.reverse(order);
+        orders.add(new ArrayList<>(order));
+        Random random = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            Collections.shuffle(order, random);
+            orders.add(new ArrayList<>(order));
+        }
+        return orders;
+    }
+
+    private static ExpansionTerms expansionTerms(List<Integer> order) {
+        ExpansionTerms expansionTerms = new ExpansionTerms();
+        for (int term : order) {
+            expansionTerms.setWeight(expansionTerms.add(new BytesRef(cTERMS[term])), cWEIGHTS[term]);
+        }
+        return expansionTerms;
+    }
+}
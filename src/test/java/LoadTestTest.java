@@ -0,0 +1,39 @@
+import org.apache.lucene.index.IndexReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the query phases of the load test measure searches, not lookups in a
+ * result cache that an earlier phase or another query index of the process filled.
+ */
+class LoadTestTest {
+
+    @Test
+    void batchPhaseIsNotAnsweredFromTheResultCache(@TempDir File directory) throws Exception {
+        new CorpusGenerator(10).generate(directory, 400);
+        String collections = directory + "/resources/newsarticles/Assignment Two/";
+        String indexLocation = new File(directory, "index").getPath();
+        Parser parser = new Parser("english", "bm25");
+        assertTrue(parser.createIndex(collections + "ft", collections + "fr94", collections + "fbis",
+                collections + "latimes", indexLocation));
+        Map<Integer, String[]> topics = parser.createQueries(directory + "/resources/topics/topics");
+
+        // a query index of the process fills the shared cache with the same topics first
+        try (IndexReader reader = ShardedIndex.open(indexLocation)) {
+            QueryIndex sharedQueryIndex = new QueryIndex("english", "bm25");
+            sharedQueryIndex.searchTopic(topics.values().iterator().next(),
+                    sharedQueryIndex.createSearcher(reader, null));
+
+            LoadTest.Result result = new LoadTest.Result();
+            LoadTest.query("english", "bm25", reader, topics, result);
+            assertEquals(topics.size(), result.mLatencies.count());
+            assertEquals(0, result.mBatchCacheHits);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the segmented cache keeps to its maximum size, evicts the least recently
+ * used entry and counts every lookup when many threads use it at once.
+ */
+class LruCacheTest {
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() {
+        // a small cache has a single segment, so the order of use decides
+        LruCache<String, Integer> cache = new LruCache<>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a", key -> -1);
+        cache.put("c", 3);
+
+        assertEquals(Map.of("a", 1, "c", 3), cache.entries());
+    }
+
+    @Test
+    void keepsToTheMaximumSize() {
+        LruCache<Integer, Integer> cache = new LruCache<>(1000);
+        for (int i = 0; i < 10000; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.entries().size() <= 1000, "the cache holds " + cache.entries().size() + " entries");
+
+        LruCache<Integer, Integer> disabled = new LruCache<>(0);
+        disabled.put(1, 1);
+        assertTrue(disabled.entries().isEmpty());
+    }
+
+    @Test
+    void countsTheLookupsOfConcurrentThreads() throws Exception {
+        LruCache<Integer, Integer> cache = new LruCache<>(100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> lookups = new ArrayList<>();
+        try {
+            for (int thread = 0; thread < 8; thread++) {
+                lookups.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        int key = i % 50;
+                        assertEquals(key * 2, cache.get(key, k -> k * 2));
+                    }
+                }));
+            }
+            for (Future<?> lookup : lookups) {
+                lookup.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(8 * 10000, cache.hits() + cache.misses());
+        assertEquals(50, cache.entries().size());
+    }
+}
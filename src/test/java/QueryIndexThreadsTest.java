@@ -0,0 +1,91 @@
+import org.apache.lucene.index.IndexReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that evaluating the topics concurrently, and spreading every search over the
+ * index segments, writes the same rankings byte for byte as evaluating them one at a
+ * time with a single search thread. Every run gets an empty result cache of its own, so
+ * the concurrent run does not just repeat the hits of the sequential one.
+ */
+class QueryIndexThreadsTest {
+    //<! The number of topic and search threads of the concurrent run
+    private static final int cTHREADS = 4;
+
+    @AfterEach
+    void clearThreads() {
+        System.clearProperty("query.threads");
+        System.clearProperty("search.threads");
+    }
+
+    @Test
+    void writesTheSameRankingsForTheSampleCollections(@TempDir File directory) throws Exception {
+        String indexLocation = new File(directory, "index").getPath();
+        Parser parser = new Parser("english", "bm25");
+        assertTrue(parser.createIndex(resource("collections/ft"), resource("collections/fr94"),
+                resource("collections/fbis"), resource("collections/latimes"), indexLocation));
+        Map<Integer, String[]> topics = parser.createQueries(resource("topics"));
+
+        assertSameRankings(indexLocation, topics);
+    }
+
+    @Test
+    void writesTheSameRankingsForAGeneratedCollection(@TempDir File directory) throws Exception {
+        new CorpusGenerator(10).generate(directory, 2000);
+        String collections = directory + "/resources/newsarticles/Assignment Two/";
+        String indexLocation = new File(directory, "index").getPath();
+        Parser parser = new Parser("english", "bm25");
+        assertTrue(parser.createIndex(collections + "ft", collections + "fr94", collections + "fbis",
+                collections + "latimes", indexLocation));
+        Map<Integer, String[]> topics = parser.createQueries(directory + "/resources/topics/topics");
+
+        assertSameRankings(indexLocation, topics);
+    }
+
+    private static void assertSameRankings(String indexLocation, Map<Integer, String[]> topics) throws Exception {
+        String sequential = rankings(indexLocation, topics, 1);
+        String concurrent = rankings(indexLocation, topics, cTHREADS);
+
+        assertFalse(sequential.isEmpty(), "the topics have no hits");
+        assertEquals(sequential, concurrent);
+    }
+
+    /**
+     * @param threads the number of topic and search threads, a single thread searches without an executor
+     * @return the rankings of the topics in the run format
+     */
+    private static String rankings(String indexLocation, Map<Integer, String[]> topics, int threads)
+            throws Exception {
+        System.setProperty("query.threads", String.valueOf(threads));
+        System.setProperty("search.threads", String.valueOf(threads));
+        QueryIndex queryIndex = new QueryIndex("english", "bm25");
+        queryIndex.setResultCache(new ResultCache());
+        ExecutorService searchExecutor = threads > 1 ? queryIndex.createSearchExecutor() : null;
+        StringWriter rankings = new StringWriter();
+        try (IndexReader reader = ShardedIndex.open(indexLocation);
+             PrintWriter writer = new PrintWriter(rankings)) {
+            queryIndex.searchTopics(topics, queryIndex.createSearcher(reader, searchExecutor), writer);
+        } finally {
+            if (searchExecutor != null) {
+                searchExecutor.shutdownNow();
+            }
+        }
+        return rankings.toString();
+    }
+
+    private static String resource(String name) throws URISyntaxException {
+        return new File(QueryIndexThreadsTest.class.getResource("/" + name).toURI()).getPath();
+    }
+}
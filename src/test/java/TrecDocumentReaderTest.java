@@ -0,0 +1,43 @@
+import org.apache.lucene.document.Document;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks that the memory-mapped TrecDocumentReader produces the same documents as the
+ * Jsoup based Parser.parseFileWithJsoup for sample files of every collection. The
+ * samples keep the markup of the originals: nested elements, SGML comments, entities,
+ * several TEXT elements and documents without text.
+ */
+class TrecDocumentReaderTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"ft/ft911_1", "fbis/fb396001", "latimes/la010189", "fr94/fr940104-0"})
+    void readsTheSameDocumentsAsJsoup(String sample) throws Exception {
+        File file = sampleFile(sample);
+        List<Document> expected = new ArrayList<>();
+        List<Document> actual = new ArrayList<>();
+        Parser.parseFileWithJsoup(file, expected::add);
+        TrecDocumentReader.read(file, actual::add);
+
+        assertFalse(expected.isEmpty(), "the sample " + sample + " has no documents");
+        assertEquals(expected.size(), actual.size(), "number of documents");
+        for (int i = 0; i < expected.size(); i++) {
+            for (FieldNames field : new FieldNames[]{FieldNames.DOCNO, FieldNames.TEXT}) {
+                assertEquals(expected.get(i).get(field.getName()), actual.get(i).get(field.getName()),
+                        "document " + i + " " + field.getName());
+            }
+        }
+    }
+
+    private static File sampleFile(String sample) throws URISyntaxException {
+        return new File(TrecDocumentReaderTest.class.getResource("/collections/" + sample).toURI());
+    }
+}